@@ -3,16 +3,24 @@ package com.marcuschiu.example.android;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
 import com.marcuschiu.example.client.AppRTCClient;
+import com.marcuschiu.example.client.IceServerProber;
+import com.marcuschiu.example.client.TurnServerCache;
 import com.marcuschiu.example.client.WebSocketRTCClient;
+import com.marcuschiu.example.client.pc.NetworkHandoverMetrics;
 import com.marcuschiu.example.client.pc.PeerConnectionClient;
 import com.marcuschiu.example.client.pc.PeerConnectionEvents;
+import com.marcuschiu.example.client.pc.PeerConnectionParameters;
+import com.marcuschiu.example.client.pc.TransportProfile;
+import com.marcuschiu.example.client.util.CallStartupTimeline;
 import com.marcuschiu.example.util.CameraUtil;
-import com.marcuschiu.example.util.ProxyVideoRendererCallbacks;
 import com.marcuschiu.example.util.ProxyVideoSink;
 
 import org.webrtc.IceCandidate;
@@ -26,10 +34,21 @@ import java.util.Random;
 
 public class CallActivity extends Activity implements AppRTCClient.SignalingEvents, PeerConnectionEvents {
 
-    ProxyVideoRendererCallbacks remoteVideo = new ProxyVideoRendererCallbacks();
+    // How long a dropped connection may take to recover, through ICE restarts,
+    // before the call is ended.
+    private static final long ICE_RECOVERY_GRACE_MS = 15000;
+
+    ProxyVideoSink remoteVideo = new ProxyVideoSink();
     ProxyVideoSink localVideo = new ProxyVideoSink();
 
-    PeerConnectionClient pcClient = new PeerConnectionClient();
+    final CallStartupTimeline timeline = new CallStartupTimeline();
+    PeerConnectionClient pcClient = new PeerConnectionClient(PeerConnectionParameters.builder()
+            .setPreferProbedVideoCodecs(true)
+            .setAdaptiveCapture(true)
+            .setIceRestart(true)
+            .setNetworkHandover(true)
+            .setTransportProfile(TransportProfile.FAST_SETUP)
+            .createPeerConnectionParameters());
     AppRTCClient appRtcClient;
 
     boolean isInitiator = false;
@@ -37,9 +56,20 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
     boolean iceConnected = false;
     boolean isError = false;
     boolean isSwappedFeeds = true;
+    // Process CPU time and uptime when the call connected, to report the
+    // average CPU load of the call; -1 until then.
+    long connectedCpuMs = -1;
+    long connectedAtMs;
+
+    final Handler handler = new Handler();
+    final Runnable iceRecoveryTimeout = () -> {
+        Log.d("CallActivity", "Connection not recovered in " + ICE_RECOVERY_GRACE_MS + " ms");
+        disconnect();
+    };
 
     SurfaceViewRenderer svrSmall;
     SurfaceViewRenderer svrFull;
+    RenderBudgetScheduler renderScheduler;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -53,29 +83,45 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         ImageButton cameraSwitchButton = findViewById(R.id.button_call_switch_camera);
         cameraSwitchButton.setOnClickListener(view -> pcClient.switchCamera());
 
+        // Call setup: the room join (network), the factory and local media
+        // (PeerConnectionClient executor) and the renderers (UI thread) run
+        // concurrently. Only the peer connection waits for the join result.
+        pcClient.setStartupTimeline(timeline);
+
+        String roomID = "GOD-" + new Random().nextInt(1000);
+        ((TextView) findViewById(R.id.roomID)).setText("ROOM ID: " + roomID);
+
+        // connect to room
+        appRtcClient = WebSocketRTCClient.builder(this)
+                .setTurnServerCache(TurnServerCache.getInstance(this))
+                .setIceServerProber(IceServerProber.getInstance(this))
+                .createWebSocketRTCClient();
+        timeline.begin("join room");
+        appRtcClient.connectToRoom(roomID);
+
+        pcClient.createPeerConnectionFactory(getApplicationContext(), this);
+        timeline.begin("create camera capturer");
+        VideoCapturer videoCapturer = CameraUtil.getVideoCapturer(this);
+        timeline.end("create camera capturer");
+        pcClient.createLocalMedia(localVideo, videoCapturer);
+
         // Video Setup
         svrSmall = findViewById(R.id.pip_video_view);
         svrSmall.setOnClickListener(view -> setSwappedFeeds(!isSwappedFeeds)); // Swap feeds on pip view click.
-        svrSmall.init(pcClient.getRenderContext(), null);
+        svrSmall.init(pcClient.getRenderContext(), new FirstFrameTimelineEvents("pip"));
         svrSmall.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT);
         svrSmall.setZOrderMediaOverlay(true);
-        svrSmall.setEnableHardwareScaler(true);
 
         svrFull = findViewById(R.id.fullscreen_video_view);
-        svrFull.init(pcClient.getRenderContext(), null);
+        svrFull.init(pcClient.getRenderContext(), new FirstFrameTimelineEvents("fullscreen"));
         svrFull.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FILL);
-        svrFull.setEnableHardwareScaler(true);
 
-        setSwappedFeeds(true); // Start with local feed in fullscreen and swap it when call is connected
-
-        pcClient.createPeerConnectionFactory(getApplicationContext(), this);
+        // Frame rate and hardware scaler of both views follow their size.
+        renderScheduler = new RenderBudgetScheduler();
+        renderScheduler.addView(svrFull);
+        renderScheduler.addView(svrSmall);
 
-        String roomID = "GOD-" + new Random().nextInt(1000);
-        ((TextView) findViewById(R.id.roomID)).setText("ROOM ID: " + roomID);
-
-        // connect to room
-        appRtcClient = new WebSocketRTCClient(this);
-        appRtcClient.connectToRoom(roomID);
+        setSwappedFeeds(true); // Start with local feed in fullscreen and swap it when call is connected
     }
 
     private void setSwappedFeeds(boolean isSwappedFeeds) {
@@ -84,6 +130,7 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         remoteVideo.setTarget(isSwappedFeeds ? svrSmall : svrFull);
         svrFull.setMirror(isSwappedFeeds);
         svrSmall.setMirror(!isSwappedFeeds);
+        renderScheduler.replan();
     }
 
 
@@ -93,8 +140,12 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
 
     @Override
     public void onConnectedToRoom(final AppRTCClient.SignalingParameters sp) {
+        timeline.end("join room");
         runOnUiThread(() -> {
-            pcClient.createPeerConnection(localVideo, remoteVideo, CameraUtil.getVideoCapturer(this), sp.iceServers);
+            if (pcClient == null) {
+                return;
+            }
+            pcClient.createPeerConnection(remoteVideo, sp.iceServers);
 
             isInitiator = sp.initiator;
             if (isInitiator) {
@@ -162,6 +213,13 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         appRtcClient.sendLocalIceCandidate(candidate);
     }
 
+    @Override
+    public void onIceGatheringComplete() {
+        if (appRtcClient != null) {
+            appRtcClient.flushLocalIceCandidates();
+        }
+    }
+
     @Override
     public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
         appRtcClient.sendLocalIceCandidateRemovals(candidates);
@@ -170,13 +228,39 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
     @Override
     public void onIceConnected() {
         iceConnected = true;
-        setSwappedFeeds(false);
+        connectedCpuMs = Process.getElapsedCpuTime();
+        connectedAtMs = SystemClock.elapsedRealtime();
+        // The render scheduler touches the views.
+        runOnUiThread(() -> {
+            if (renderScheduler != null) {
+                setSwappedFeeds(false);
+            }
+        });
+        timeline.log();
     }
 
     @Override
     public void onIceDisconnected() {
-        iceConnected = false;
-        disconnect();
+        // Media keeps flowing into the pipeline while ICE restarts; only end
+        // the call if the connection does not come back.
+        runOnUiThread(() -> {
+            iceConnected = false;
+            handler.postDelayed(iceRecoveryTimeout, ICE_RECOVERY_GRACE_MS);
+        });
+    }
+
+    @Override
+    public void onIceReconnected(long recoveryMs) {
+        runOnUiThread(() -> {
+            handler.removeCallbacks(iceRecoveryTimeout);
+            iceConnected = true;
+            Log.d("CallActivity", "Connection recovered in " + recoveryMs + " ms");
+        });
+    }
+
+    @Override
+    public void onNetworkHandover(NetworkHandoverMetrics metrics) {
+        Log.d("CallActivity", "Network handover " + metrics);
     }
 
     @Override
@@ -202,6 +286,9 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         super.onStart();
         activityRunning = true;
         pcClient.startVideoSource(); // Video is not paused for screencapture. See onPause.
+        if (renderScheduler != null) {
+            renderScheduler.setVisible(true);
+        }
     }
 
     @Override
@@ -211,6 +298,9 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         if (pcClient != null) {
             pcClient.stopVideoSource();
         }
+        if (renderScheduler != null) {
+            renderScheduler.setVisible(false);
+        }
     }
 
     @Override
@@ -227,13 +317,28 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
     //////////////////////
 
     private void disconnect() {
+        handler.removeCallbacks(iceRecoveryTimeout);
         activityRunning = false;
         remoteVideo.setTarget(null);
         localVideo.setTarget(null);
+        Log.d("CallActivity", "Remote video: " + remoteVideo.getFrameCounter());
+        Log.d("CallActivity", "Local video: " + localVideo.getFrameCounter());
+        if (connectedCpuMs >= 0) {
+            final long callMs = SystemClock.elapsedRealtime() - connectedAtMs;
+            if (callMs > 0) {
+                Log.d("CallActivity", "Process CPU " + (Process.getElapsedCpuTime() - connectedCpuMs) * 100 / callMs
+                        + "% of one core over " + callMs / 1000 + " s connected");
+            }
+            connectedCpuMs = -1;
+        }
         if (appRtcClient != null) {
             appRtcClient.disconnectFromRoom();
             appRtcClient = null;
         }
+        if (renderScheduler != null) {
+            renderScheduler.release();
+            renderScheduler = null;
+        }
         if (svrSmall != null) {
             svrSmall.release();
             svrSmall = null;
@@ -254,6 +359,24 @@ public class CallActivity extends Activity implements AppRTCClient.SignalingEven
         finish();
     }
 
+    // Marks a renderer's first frame on the startup timeline.
+    private class FirstFrameTimelineEvents implements RendererCommon.RendererEvents {
+        private final String name;
+
+        FirstFrameTimelineEvents(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onFirstFrameRendered() {
+            timeline.mark("first frame rendered (" + name + ")");
+        }
+
+        @Override
+        public void onFrameResolutionChanged(int videoWidth, int videoHeight, int rotation) {
+        }
+    }
+
     private void disconnectWithErrorMessage(final String errorMessage) {
         if (!activityRunning) {
             Log.e("CallActivity", "Critical error: " + errorMessage);
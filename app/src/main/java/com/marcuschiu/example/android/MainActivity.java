@@ -3,13 +3,43 @@ package com.marcuschiu.example.android;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
+
+import com.marcuschiu.example.client.TurnServerCache;
+import com.marcuschiu.example.client.WebSocketRTCClient;
+import com.marcuschiu.example.client.pc.DataChannelLatencyBenchmark;
+import com.marcuschiu.example.client.pc.VideoCodecProbe;
+import com.marcuschiu.example.client.util.HttpPreconnector;
 
 public class MainActivity extends Activity {
+    // adb shell am start -n com.marcuschiu.example/.android.MainActivity --ez dataChannelBenchmark true
+    private static final String EXTRA_DATA_CHANNEL_BENCHMARK = "dataChannelBenchmark";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        // Rank the video codecs ahead of the first call; the result is cached on disk.
+        VideoCodecProbe.prefetch(this);
+        // Warm the room server and the last call's TURN server while this
+        // screen is shown, so the join and TURN requests find pooled
+        // connections. The TURN URL is read from the cache on the HTTP thread.
+        HttpPreconnector.preconnect(WebSocketRTCClient.ROOM_SERVER_URL);
+        final TurnServerCache turnServerCache = TurnServerCache.getInstance(this);
+        HttpPreconnector.preconnect(turnServerCache::getLastIceServerUrl);
+        if (getIntent().getBooleanExtra(EXTRA_DATA_CHANNEL_BENCHMARK, false)) {
+            DataChannelLatencyBenchmark.run(this, 1000, 10, new DataChannelLatencyBenchmark.Callback() {
+                @Override
+                public void onBenchmarkComplete(DataChannelLatencyBenchmark.Result result) {
+                    Log.d("MainActivity", "Data channel latency: " + result);
+                }
+
+                @Override
+                public void onBenchmarkFailed(String error) {
+                    Log.d("MainActivity", "Data channel benchmark failed: " + error);
+                }
+            });
+        }
         findViewById(R.id.connectBtn).setOnClickListener((arg) -> {
             Intent myIntent = new Intent(this, CallActivity.class);
             startActivity(myIntent);
@@ -0,0 +1,107 @@
+package com.marcuschiu.example.android;
+
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.View;
+
+import org.webrtc.SurfaceViewRenderer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides how much rendering each call view gets from its size on screen and
+ * whether the activity is visible.
+ *
+ * <p>A view covering a small part of the screen (the PiP tile) renders at
+ * {@link #THUMBNAIL_FPS} into a surface the size of the view, so the GPU
+ * draws a thumbnail instead of a full-resolution frame that the display then
+ * shrinks. Larger views render every frame, with the hardware scaler sizing
+ * the surface to the frame. While the activity is stopped every view is
+ * paused, and frames are dropped before they reach the render thread.
+ *
+ * <p>Plans are made again when a view's size changes, when the feeds are
+ * swapped and when the activity is started or stopped. UI thread only.
+ */
+class RenderBudgetScheduler implements View.OnLayoutChangeListener {
+    private static final String TAG = "RenderBudgetScheduler";
+    // Views covering less than this share of the screen are thumbnails.
+    private static final float THUMBNAIL_AREA_FRACTION = 0.25f;
+    private static final float THUMBNAIL_FPS = 15f;
+
+    private enum Budget { PAUSED, THUMBNAIL, FULL }
+
+    private final List<SurfaceViewRenderer> views = new ArrayList<>();
+    private final Map<SurfaceViewRenderer, Budget> budgets = new HashMap<>();
+    private boolean visible = true;
+
+    void addView(SurfaceViewRenderer view) {
+        views.add(view);
+        view.addOnLayoutChangeListener(this);
+        replan();
+    }
+
+    void setVisible(boolean visible) {
+        if (this.visible != visible) {
+            this.visible = visible;
+            replan();
+        }
+    }
+
+    void replan() {
+        for (SurfaceViewRenderer view : views) {
+            final Budget budget = plan(view);
+            if (budgets.get(view) == budget) {
+                continue;
+            }
+            budgets.put(view, budget);
+            switch (budget) {
+                case PAUSED:
+                    view.pauseVideo();
+                    break;
+                case THUMBNAIL:
+                    view.setFpsReduction(THUMBNAIL_FPS);
+                    view.setEnableHardwareScaler(false);
+                    break;
+                case FULL:
+                    view.disableFpsReduction();
+                    view.setEnableHardwareScaler(true);
+                    break;
+            }
+            Log.d(TAG, view.getResources().getResourceEntryName(view.getId()) + " (" + view.getWidth() + "x"
+                    + view.getHeight() + "): " + budget);
+        }
+    }
+
+    void release() {
+        for (SurfaceViewRenderer view : views) {
+            view.removeOnLayoutChangeListener(this);
+        }
+        views.clear();
+        budgets.clear();
+    }
+
+    @Override
+    public void onLayoutChange(View view, int left, int top, int right, int bottom,
+                               int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) {
+            replan();
+        }
+    }
+
+    private Budget plan(SurfaceViewRenderer view) {
+        if (!visible) {
+            return Budget.PAUSED;
+        }
+        final DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+        final long screenArea = (long) metrics.widthPixels * metrics.heightPixels;
+        final long viewArea = (long) view.getWidth() * view.getHeight();
+        // Full budget until the view has been laid out.
+        if (viewArea == 0 || screenArea == 0 || viewArea >= screenArea * THUMBNAIL_AREA_FRACTION) {
+            return Budget.FULL;
+        }
+        return Budget.THUMBNAIL;
+    }
+}
@@ -32,6 +32,12 @@ public interface AppRTCClient {
      */
     void sendLocalIceCandidate(final IceCandidate candidate);
 
+    /**
+     * Send any locally batched ICE candidates right away, e.g. because ICE
+     * gathering completed.
+     */
+    void flushLocalIceCandidates();
+
     /**
      * Send removed ICE candidates to the other participant.
      */
@@ -0,0 +1,93 @@
+package com.marcuschiu.example.client;
+
+import android.os.Handler;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Coalesces locally gathered ICE candidates into batches. The first candidate
+ * of a gathering round goes out immediately so time-to-connect does not
+ * regress; the ones that follow are collected for the window or until
+ * gathering completes and are then handed over together. A window of 0, the
+ * initial one, sends every candidate on its own.
+ *
+ * <p>Must only be used on the thread of |handler|.
+ */
+class IceCandidateBatcher {
+    interface BatchSender {
+        void sendCandidates(List<IceCandidate> candidates);
+    }
+
+    private final Handler handler;
+    private final BatchSender sender;
+    private int windowMs;
+    private final List<IceCandidate> pending = new ArrayList<>();
+    private final Runnable flushRunnable = this::flush;
+    private boolean firstSent;
+    private boolean flushScheduled;
+
+    IceCandidateBatcher(Handler handler, BatchSender sender) {
+        this.handler = handler;
+        this.sender = sender;
+    }
+
+    /**
+     * Sets the batching window for the candidates that follow; 0 flushes and
+     * stops batching.
+     */
+    void setWindowMs(int windowMs) {
+        this.windowMs = windowMs;
+        if (windowMs <= 0) {
+            flush();
+        }
+    }
+
+    void add(IceCandidate candidate) {
+        if (!firstSent || windowMs <= 0) {
+            firstSent = true;
+            sender.sendCandidates(Collections.singletonList(candidate));
+            return;
+        }
+        pending.add(candidate);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+
+    /**
+     * Sends whatever is pending right away.
+     */
+    void flush() {
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<IceCandidate> batch = new ArrayList<>(pending);
+        pending.clear();
+        sender.sendCandidates(batch);
+    }
+
+    /**
+     * Flushes and starts a new gathering round, whose first candidate is again
+     * sent without delay. Called for every local offer, since with continual
+     * gathering a round never reports completion.
+     */
+    void startRound() {
+        flush();
+        firstSent = false;
+    }
+
+    void clear() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        pending.clear();
+    }
+}
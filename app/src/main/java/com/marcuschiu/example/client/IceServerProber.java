@@ -0,0 +1,485 @@
+package com.marcuschiu.example.client;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures the round trip time to every STUN/TURN endpoint before the peer
+ * connection is created and keeps only the closest servers, so ICE gathers
+ * and allocates on fewer relays and relayed media takes the shortest path.
+ *
+ * <p>UDP endpoints get a STUN Binding request; TCP and TLS endpoints are
+ * timed by their TCP handshake. Endpoints are probed in parallel on a small
+ * pool of {@link #PROBE_THREADS} threads, and prune() waits for them on a
+ * thread of its own. Results are cached per network for
+ * {@link #RESULT_TTL_MS}, or {@link #FAILURE_TTL_MS} for endpoints that did
+ * not answer so one lost probe does not drop a server for long. The cache is
+ * keyed by URL rather than by the short-lived TURN credentials, and probes
+ * already in flight are shared, so probing can start as soon as any server
+ * list is known.
+ */
+public class IceServerProber {
+    private static final String TAG = "IceServerProber";
+    // TURN relays kept by prune(), not counting the UDP and TCP/TLS fallbacks.
+    public static final int DEFAULT_MAX_RELAYS = 2;
+    static final long PROBE_TIMEOUT_MS = 1000;
+    // UDP probes are retransmitted once, in case the first request is lost.
+    private static final long STUN_RETRANSMIT_MS = 400;
+    static final long RESULT_TTL_MS = 10 * 60 * 1000;
+    static final long FAILURE_TTL_MS = 30 * 1000;
+    // A typical list has a handful of URLs; more are queued.
+    static final int PROBE_THREADS = 4;
+    // Bounds prune() when probes are queued behind slow ones.
+    static final long MAX_PRUNE_WAIT_MS = 3 * PROBE_TIMEOUT_MS;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    // Round trip time of an endpoint that did not answer.
+    static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private static final int STUN_BINDING_REQUEST = 0x0001;
+    // Class bit set in both success and error responses.
+    private static final int STUN_RESPONSE_CLASS = 0x0100;
+    private static final int STUN_MAGIC_COOKIE = 0x2112A442;
+    private static final int STUN_HEADER_LENGTH = 20;
+    private static final int STUN_DEFAULT_PORT = 3478;
+    private static final int STUN_TLS_DEFAULT_PORT = 5349;
+
+    private static IceServerProber instance;
+
+    private final ConnectivityManager connectivityManager;
+    private final ThreadPoolExecutor executor;
+    // Runs the prune() waits, one at a time, so they never hold a probe thread.
+    private final ExecutorService pruneExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "IceServerProber-prune");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Random random = new Random();
+    // "<network>|<url>" -> probe.
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>();
+
+    public interface Callback {
+        /**
+         * Called on a prober thread with the servers to use.
+         */
+        void onIceServersReady(List<PeerConnection.IceServer> iceServers);
+    }
+
+    private class Probe {
+        final FutureTask<Long> rttMs;
+        final long startedAtMs;
+        // When a probe thread picked it up; 0 while queued.
+        volatile long runStartedAtMs;
+
+        Probe(final String url, long startedAtMs) {
+            this.rttMs = new FutureTask<>(() -> {
+                runStartedAtMs = System.currentTimeMillis();
+                return probeUrl(url);
+            });
+            this.startedAtMs = startedAtMs;
+        }
+
+        boolean isFresh(long nowMs) {
+            return nowMs - startedAtMs < (isFailed() ? FAILURE_TTL_MS : RESULT_TTL_MS);
+        }
+
+        private boolean isFailed() {
+            if (!rttMs.isDone()) {
+                return false;
+            }
+            try {
+                return rttMs.get() == UNREACHABLE;
+            } catch (ExecutionException | InterruptedException | CancellationException e) {
+                return true;
+            }
+        }
+    }
+
+    // One probed URL.
+    static class Endpoint {
+        final String host;
+        final int port;
+        // "udp", "tcp" or "tls".
+        final String transport;
+        // A turn: or turns: URL rather than stun: or stuns:.
+        final boolean relay;
+
+        Endpoint(String host, int port, String transport, boolean relay) {
+            this.host = host;
+            this.port = port;
+            this.transport = transport;
+            this.relay = relay;
+        }
+    }
+
+    IceServerProber(ConnectivityManager connectivityManager) {
+        this.connectivityManager = connectivityManager;
+        executor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "IceServerProber");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized IceServerProber getInstance(Context context) {
+        if (instance == null) {
+            instance = new IceServerProber(
+                    (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE));
+        }
+        return instance;
+    }
+
+    /**
+     * Starts probing the endpoints of |iceServers| that have no fresh result
+     * on the current network. Returns immediately.
+     */
+    public void probe(List<PeerConnection.IceServer> iceServers) {
+        final String network = getNetworkKey();
+        for (PeerConnection.IceServer server : iceServers) {
+            for (String url : server.urls) {
+                getProbe(network, url);
+            }
+        }
+    }
+
+    /**
+     * Waits for the probes of |iceServers| (at most PROBE_TIMEOUT_MS once a
+     * probe runs, and MAX_PRUNE_WAIT_MS in all) and hands |callback| the
+     * pruned list; see {@link #select}.
+     */
+    public void prune(final List<PeerConnection.IceServer> iceServers, final int maxRelays, final Callback callback) {
+        final String network = getNetworkKey();
+        final List<Probe> serverProbes = new ArrayList<>();
+        for (PeerConnection.IceServer server : iceServers) {
+            for (String url : server.urls) {
+                serverProbes.add(getProbe(network, url));
+            }
+        }
+        final long deadlineMs = System.currentTimeMillis() + MAX_PRUNE_WAIT_MS;
+        pruneExecutor.execute(() -> {
+            final long startMs = System.currentTimeMillis();
+            final int count = iceServers.size();
+            final boolean[] relay = new boolean[count];
+            final long[] udpRtts = new long[count];
+            final long[] streamRtts = new long[count];
+            int probe = 0;
+            for (int i = 0; i < count; i++) {
+                udpRtts[i] = UNREACHABLE;
+                streamRtts[i] = UNREACHABLE;
+                for (String url : iceServers.get(i).urls) {
+                    final long rttMs = await(serverProbes.get(probe++), deadlineMs);
+                    final Endpoint endpoint = parseUrl(url);
+                    if (endpoint == null) {
+                        continue;
+                    }
+                    relay[i] |= endpoint.relay;
+                    if (endpoint.transport.equals("udp")) {
+                        udpRtts[i] = Math.min(udpRtts[i], rttMs);
+                    } else {
+                        streamRtts[i] = Math.min(streamRtts[i], rttMs);
+                    }
+                }
+            }
+            List<PeerConnection.IceServer> pruned = select(iceServers, relay, udpRtts, streamRtts, maxRelays);
+            Log.d(TAG, "Kept " + pruned.size() + " of " + count + " ICE servers after "
+                    + (System.currentTimeMillis() - startMs) + " ms: " + describe(iceServers, udpRtts, streamRtts));
+            callback.onIceServersReady(pruned);
+        });
+    }
+
+    /**
+     * Picks the servers to use from the probe results: the closest STUN
+     * server, and the |maxRelays| closest TURN relays. At least one relay
+     * reachable over UDP is kept, and one reachable over TCP or TLS as a
+     * fallback for networks that block UDP, even if that exceeds
+     * |maxRelays|. If no server of a kind answered, all servers of that kind
+     * are kept. Relays come first, fastest first.
+     *
+     * @param relay      whether a server has turn: or turns: URLs.
+     * @param udpRtts    best round trip over the server's UDP URLs.
+     * @param streamRtts best round trip over its TCP and TLS URLs.
+     */
+    static List<PeerConnection.IceServer> select(List<PeerConnection.IceServer> iceServers, boolean[] relay,
+                                                 long[] udpRtts, long[] streamRtts, int maxRelays) {
+        final List<Integer> relays = new ArrayList<>();
+        final List<Integer> stuns = new ArrayList<>();
+        for (int i = 0; i < iceServers.size(); i++) {
+            (relay[i] ? relays : stuns).add(i);
+        }
+        final Comparator<Integer> byRtt = (a, b) -> Long.compare(
+                Math.min(udpRtts[a], streamRtts[a]), Math.min(udpRtts[b], streamRtts[b]));
+        Collections.sort(relays, byRtt);
+        Collections.sort(stuns, byRtt);
+
+        final List<PeerConnection.IceServer> kept = new ArrayList<>();
+        if (relays.isEmpty() || !isReachable(relays.get(0), udpRtts, streamRtts)) {
+            for (int i : relays) {
+                kept.add(iceServers.get(i));
+            }
+        } else {
+            boolean hasUdp = false;
+            boolean hasStream = false;
+            int keptRelays = 0;
+            for (int i : relays) {
+                if (!isReachable(i, udpRtts, streamRtts)) {
+                    break;
+                }
+                final boolean udp = udpRtts[i] != UNREACHABLE;
+                final boolean stream = streamRtts[i] != UNREACHABLE;
+                if (keptRelays < maxRelays || (udp && !hasUdp) || (stream && !hasStream)) {
+                    kept.add(iceServers.get(i));
+                    keptRelays++;
+                    hasUdp |= udp;
+                    hasStream |= stream;
+                }
+            }
+        }
+        if (stuns.isEmpty() || !isReachable(stuns.get(0), udpRtts, streamRtts)) {
+            for (int i : stuns) {
+                kept.add(iceServers.get(i));
+            }
+        } else {
+            // Server reflexive candidates are the same from any STUN server.
+            kept.add(iceServers.get(stuns.get(0)));
+        }
+        return kept;
+    }
+
+    private static boolean isReachable(int server, long[] udpRtts, long[] streamRtts) {
+        return udpRtts[server] != UNREACHABLE || streamRtts[server] != UNREACHABLE;
+    }
+
+    private Probe getProbe(String network, final String url) {
+        final String key = network + "|" + url;
+        final long nowMs = System.currentTimeMillis();
+        return probes.compute(key, (k, existing) -> {
+            if (existing != null && existing.isFresh(nowMs)) {
+                return existing;
+            }
+            final Probe probe = new Probe(url, nowMs);
+            executor.execute(probe.rttMs);
+            return probe;
+        });
+    }
+
+    private static long await(Probe probe, long pruneDeadlineMs) {
+        while (true) {
+            final long nowMs = System.currentTimeMillis();
+            final long runStartedAtMs = probe.runStartedAtMs;
+            // A queued probe gets its full timeout once it runs.
+            final long deadlineMs = Math.min(pruneDeadlineMs,
+                    (runStartedAtMs != 0 ? runStartedAtMs : nowMs) + PROBE_TIMEOUT_MS);
+            try {
+                return probe.rttMs.get(Math.max(0, deadlineMs - nowMs), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                final long startedMs = probe.runStartedAtMs;
+                final long timedOutMs = System.currentTimeMillis();
+                if (timedOutMs >= pruneDeadlineMs || (startedMs != 0 && timedOutMs >= startedMs + PROBE_TIMEOUT_MS)) {
+                    return UNREACHABLE;
+                }
+            } catch (ExecutionException | CancellationException e) {
+                return UNREACHABLE;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return UNREACHABLE;
+            }
+        }
+    }
+
+    private long probeUrl(String url) {
+        Endpoint endpoint = parseUrl(url);
+        if (endpoint == null) {
+            Log.w(TAG, "Cannot probe " + url);
+            return UNREACHABLE;
+        }
+        try {
+            // Resolve outside the timed part; DNS is not part of the path to
+            // the server.
+            InetAddress address = InetAddress.getByName(endpoint.host);
+            long rttMs = endpoint.transport.equals("udp")
+                    ? stunBindingRtt(new InetSocketAddress(address, endpoint.port))
+                    : tcpConnectRtt(new InetSocketAddress(address, endpoint.port));
+            Log.d(TAG, url + ": " + (rttMs == UNREACHABLE ? "no answer" : rttMs + " ms"));
+            return rttMs;
+        } catch (IOException e) {
+            Log.d(TAG, url + ": " + e);
+            return UNREACHABLE;
+        }
+    }
+
+    long stunBindingRtt(InetSocketAddress address) throws IOException {
+        byte[] request = new byte[STUN_HEADER_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        buffer.putShort((short) STUN_BINDING_REQUEST);
+        buffer.putShort((short) 0);
+        buffer.putInt(STUN_MAGIC_COOKIE);
+        byte[] transactionId = new byte[12];
+        synchronized (random) {
+            random.nextBytes(transactionId);
+        }
+        buffer.put(transactionId);
+
+        byte[] response = new byte[512];
+        DatagramPacket received = new DatagramPacket(response, response.length);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(address);
+            final long startNs = System.nanoTime();
+            final long deadlineNs = startNs + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+            long retransmitNs = startNs + TimeUnit.MILLISECONDS.toNanos(STUN_RETRANSMIT_MS);
+            socket.send(new DatagramPacket(request, request.length));
+            while (true) {
+                long nowNs = System.nanoTime();
+                long waitNs = Math.min(deadlineNs, retransmitNs) - nowNs;
+                if (waitNs <= 0) {
+                    if (nowNs >= deadlineNs) {
+                        return UNREACHABLE;
+                    }
+                    socket.send(new DatagramPacket(request, request.length));
+                    retransmitNs = deadlineNs;
+                    continue;
+                }
+                socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNs)));
+                try {
+                    socket.receive(received);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                if (isBindingResponse(response, received.getLength(), transactionId)) {
+                    // Measured from the first request; a retransmit answer
+                    // still says the server is that far at worst.
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+                }
+            }
+        }
+    }
+
+    private static boolean isBindingResponse(byte[] response, int length, byte[] transactionId) {
+        if (length < STUN_HEADER_LENGTH) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(response, 0, length);
+        int type = buffer.getShort() & 0xffff;
+        buffer.getShort();
+        if (buffer.getInt() != STUN_MAGIC_COOKIE) {
+            return false;
+        }
+        for (byte b : transactionId) {
+            if (buffer.get() != b) {
+                return false;
+            }
+        }
+        // An error response (e.g. a TURN server demanding authentication)
+        // still measures the round trip.
+        return (type & STUN_RESPONSE_CLASS) != 0;
+    }
+
+    private static long tcpConnectRtt(InetSocketAddress address) throws IOException {
+        try (Socket socket = new Socket()) {
+            final long startNs = System.nanoTime();
+            try {
+                socket.connect(address, (int) PROBE_TIMEOUT_MS);
+            } catch (SocketTimeoutException e) {
+                return UNREACHABLE;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        }
+    }
+
+    /**
+     * Parses "stun:host[:port]", "turn:host[:port][?transport=udp|tcp]" and
+     * the "stuns:"/"turns:" forms; IPv6 hosts are bracketed. Returns null for
+     * anything else.
+     */
+    static Endpoint parseUrl(String url) {
+        final int colon = url.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        final String scheme = url.substring(0, colon);
+        final boolean secure = scheme.equals("stuns") || scheme.equals("turns");
+        if (!secure && !scheme.equals("stun") && !scheme.equals("turn")) {
+            return null;
+        }
+        String rest = url.substring(colon + 1);
+        String transport = secure ? "tls" : "udp";
+        final int query = rest.indexOf('?');
+        if (query >= 0) {
+            String params = rest.substring(query + 1);
+            rest = rest.substring(0, query);
+            if (params.startsWith("transport=") && !secure) {
+                transport = params.substring("transport=".length());
+            }
+        }
+        if (!transport.equals("udp") && !transport.equals("tcp") && !transport.equals("tls")) {
+            return null;
+        }
+        String host = rest;
+        int port = secure ? STUN_TLS_DEFAULT_PORT : STUN_DEFAULT_PORT;
+        final int hostEnd = rest.startsWith("[") ? rest.indexOf(']') + 1 : rest.lastIndexOf(':');
+        if (hostEnd > 0 && hostEnd < rest.length() && rest.charAt(hostEnd) == ':') {
+            host = rest.substring(0, hostEnd);
+            try {
+                port = Integer.parseInt(rest.substring(hostEnd + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return host.isEmpty() ? null : new Endpoint(host, port, transport, scheme.startsWith("turn"));
+    }
+
+    // Results of different networks must not mix: a relay close on Wi-Fi
+    // can be far away on cellular.
+    private String getNetworkKey() {
+        Network network = connectivityManager != null ? connectivityManager.getActiveNetwork() : null;
+        return network != null ? Long.toString(network.getNetworkHandle()) : "none";
+    }
+
+    private static String describe(List<PeerConnection.IceServer> iceServers, long[] udpRtts, long[] streamRtts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < iceServers.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(iceServers.get(i).urls).append(" udp=").append(formatRtt(udpRtts[i]))
+                    .append(" stream=").append(formatRtt(streamRtts[i]));
+        }
+        return sb.toString();
+    }
+
+    private static String formatRtt(long rttMs) {
+        return rttMs == UNREACHABLE ? "-" : rttMs + "ms";
+    }
+}
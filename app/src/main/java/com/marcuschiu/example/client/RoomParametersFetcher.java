@@ -2,7 +2,11 @@ package com.marcuschiu.example.client;
 
 import android.util.Log;
 
+import com.marcuschiu.example.client.signaling.SignalingCodec;
+import com.marcuschiu.example.client.signaling.SignalingMessage;
 import com.marcuschiu.example.client.util.AsyncHttpURLConnection;
+import com.marcuschiu.example.client.util.HttpExecutor;
+import com.marcuschiu.example.client.util.HttpTimings;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,12 +16,12 @@ import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * AsyncTask that converts an AppRTC room URL into the set of signaling
@@ -29,6 +33,18 @@ public class RoomParametersFetcher {
     private final RoomParametersFetcherEvents events;
     private final String roomUrl;
     private final String roomMessage;
+    private final TurnServerCache turnServerCache;
+    private final IceServerProber iceServerProber;
+
+    // TURN state, shared between the join and TURN request threads. The TURN
+    // request may start before the join response names ice_server_url.
+    private final Object turnLock = new Object();
+    private String turnRequestUrl;
+    private String turnServersUrl;
+    private List<PeerConnection.IceServer> turnServers;
+    // Join result waiting for the TURN servers from pendingTurnUrl.
+    private AppRTCClient.SignalingParameters pendingParams;
+    private String pendingTurnUrl;
 
     public interface RoomParametersFetcherEvents {
         /**
@@ -40,13 +56,42 @@ public class RoomParametersFetcher {
         void onSignalingParametersError(final String description);
     }
 
-    public RoomParametersFetcher(String roomUrl, String roomMessage, final RoomParametersFetcherEvents events) {
+    /**
+     * @param turnServerCache serves TURN credentials that have not expired and
+     *                        lets the TURN request for the last known
+     *                        ice_server_url run in parallel with the join
+     *                        request; null always fetches after the join.
+     * @param iceServerProber probes the TURN servers as soon as they are
+     *                        known, in parallel with the join, and prunes the
+     *                        final list to the closest ones; null keeps every
+     *                        server.
+     */
+    public RoomParametersFetcher(String roomUrl, String roomMessage, TurnServerCache turnServerCache,
+                                 IceServerProber iceServerProber, final RoomParametersFetcherEvents events) {
         this.roomUrl = roomUrl;
         this.roomMessage = roomMessage;
+        this.turnServerCache = turnServerCache;
+        this.iceServerProber = iceServerProber;
         this.events = events;
     }
 
     public void makeRequest() {
+        String lastIceServerUrl = turnServerCache != null ? turnServerCache.getLastIceServerUrl() : null;
+        if (lastIceServerUrl != null) {
+            List<PeerConnection.IceServer> cached = turnServerCache.getIceServers(lastIceServerUrl);
+            if (cached != null) {
+                Log.d(TAG, "Using cached TURN servers from: " + lastIceServerUrl);
+                synchronized (turnLock) {
+                    turnServersUrl = lastIceServerUrl;
+                    turnServers = cached;
+                }
+                if (iceServerProber != null) {
+                    iceServerProber.probe(cached);
+                }
+            } else {
+                requestTurnServersAsync(lastIceServerUrl, true);
+            }
+        }
         AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection("POST", roomUrl, roomMessage, new AsyncHttpURLConnection.AsyncHttpEvents() {
             @Override
             public void onHttpError(String errorMessage) {
@@ -83,15 +128,16 @@ public class RoomParametersFetcher {
                 iceCandidates = new ArrayList<>();
                 String messagesString = roomJson.getString("messages");
                 JSONArray messages = new JSONArray(messagesString);
+                SignalingCodec codec = new SignalingCodec();
                 for (int i = 0; i < messages.length(); ++i) {
                     String messageString = messages.getString(i);
-                    JSONObject message = new JSONObject(messageString);
-                    String messageType = message.getString("type");
-                    if (messageType.equals("offer")) {
-                        offerSdp = new SessionDescription(SessionDescription.Type.fromCanonicalForm(messageType), message.getString("sdp"));
-                    } else if (messageType.equals("candidate")) {
-                        IceCandidate candidate = new IceCandidate(message.getString("id"), message.getInt("label"), message.getString("candidate"));
-                        iceCandidates.add(candidate);
+                    SignalingMessage message = codec.decodeMessage(messageString);
+                    if (message.type == SignalingMessage.Type.OFFER) {
+                        offerSdp = message.sdp;
+                    } else if (message.type == SignalingMessage.Type.CANDIDATE) {
+                        iceCandidates.add(message.candidate);
+                    } else if (message.type == SignalingMessage.Type.CANDIDATES) {
+                        Collections.addAll(iceCandidates, message.candidates);
                     } else {
                         Log.e(TAG, "Unknown message: " + messageString);
                     }
@@ -108,57 +154,142 @@ public class RoomParametersFetcher {
                     }
                 }
             }
-            // Request TURN servers.
-            if (!isTurnPresent && !roomJson.optString("ice_server_url").isEmpty()) {
-                iceServers.addAll(requestTurnServers(roomJson.getString("ice_server_url")));
+            AppRTCClient.SignalingParameters params = new AppRTCClient.SignalingParameters(iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates);
+            String iceServerUrl = roomJson.optString("ice_server_url");
+            if (isTurnPresent || iceServerUrl.isEmpty()) {
+                deliver(params);
+                return;
             }
 
-            AppRTCClient.SignalingParameters params = new AppRTCClient.SignalingParameters(iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates);
-            events.onSignalingParametersReady(params);
+            // TURN servers are needed; use the cached or already requested ones
+            // if they came from the same URL, request them otherwise.
+            List<PeerConnection.IceServer> readyTurnServers = null;
+            boolean startRequest = false;
+            synchronized (turnLock) {
+                if (turnServers != null && iceServerUrl.equals(turnServersUrl)) {
+                    readyTurnServers = turnServers;
+                } else {
+                    pendingParams = params;
+                    pendingTurnUrl = iceServerUrl;
+                    startRequest = !iceServerUrl.equals(turnRequestUrl);
+                }
+            }
+            if (readyTurnServers != null) {
+                iceServers.addAll(readyTurnServers);
+                deliver(params);
+            } else if (startRequest) {
+                requestTurnServersAsync(iceServerUrl, false);
+            }
         } catch (JSONException e) {
             events.onSignalingParametersError("Room JSON parsing error: " + e.toString());
-        } catch (IOException e) {
-            events.onSignalingParametersError("Room IO error: " + e.toString());
+        }
+    }
+
+    // |speculative| requests are started before the join response, for the
+    // previous call's URL.
+    private void requestTurnServersAsync(final String url, final boolean speculative) {
+        synchronized (turnLock) {
+            turnRequestUrl = url;
+        }
+        try {
+            HttpExecutor.getShared().execute(AsyncHttpURLConnection.getOrigin(url), () -> {
+                try {
+                    onTurnServers(url, requestTurnServers(url));
+                } catch (JSONException e) {
+                    onTurnServersError(url, speculative, "Room JSON parsing error: " + e.toString());
+                } catch (IOException e) {
+                    onTurnServersError(url, speculative, "Room IO error: " + e.toString());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onTurnServersError(url, speculative, "Room IO error: TURN request rejected, HTTP queue is full");
+        }
+    }
+
+    private void onTurnServers(String url, List<PeerConnection.IceServer> servers) {
+        if (iceServerProber != null) {
+            iceServerProber.probe(servers);
+        }
+        AppRTCClient.SignalingParameters params = null;
+        synchronized (turnLock) {
+            turnRequestUrl = null;
+            turnServersUrl = url;
+            turnServers = servers;
+            if (pendingParams != null && url.equals(pendingTurnUrl)) {
+                params = pendingParams;
+                pendingParams = null;
+            }
+        }
+        if (params != null) {
+            params.iceServers.addAll(servers);
+            deliver(params);
+        }
+    }
+
+    private void deliver(final AppRTCClient.SignalingParameters params) {
+        if (iceServerProber == null || params.iceServers.size() <= 1) {
+            events.onSignalingParametersReady(params);
+            return;
+        }
+        iceServerProber.prune(new ArrayList<>(params.iceServers), IceServerProber.DEFAULT_MAX_RELAYS, iceServers -> {
+            params.iceServers.clear();
+            params.iceServers.addAll(iceServers);
+            events.onSignalingParametersReady(params);
+        });
+    }
+
+    private void onTurnServersError(String url, boolean speculative, String description) {
+        boolean waiting;
+        AppRTCClient.SignalingParameters params = null;
+        synchronized (turnLock) {
+            turnRequestUrl = null;
+            waiting = pendingParams != null && url.equals(pendingTurnUrl);
+            if (waiting && !speculative) {
+                params = pendingParams;
+                pendingParams = null;
+            }
+        }
+        if (params != null) {
+            events.onSignalingParametersError(description);
+        } else if (waiting) {
+            // The join response arrived while the speculative request was in
+            // flight and waited for it instead of starting its own; give it
+            // one request of its own before failing the call.
+            Log.w(TAG, "Speculative TURN request to " + url + " failed, retrying: " + description);
+            requestTurnServersAsync(url, false);
+        } else {
+            // Speculative request for the previous call's URL; the join
+            // response will trigger a fresh one if TURN is still needed.
+            Log.w(TAG, "TURN request to " + url + " failed: " + description);
         }
     }
 
     // Requests & returns a TURN ICE Server based on a request URL.  Must be run
     // off the main thread!
     private List<PeerConnection.IceServer> requestTurnServers(String url) throws IOException, JSONException {
-        List<PeerConnection.IceServer> turnServers = new ArrayList<>();
         Log.d(TAG, "Request TURN from: " + url);
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        URL turnUrl = new URL(url);
+        HttpTimings.Recorder timings = new HttpTimings.Recorder("POST", url);
+        HttpURLConnection connection = (HttpURLConnection) turnUrl.openConnection();
         connection.setDoOutput(true);
         connection.setRequestProperty("REFERER", "https://appr.tc");
         connection.setConnectTimeout(TURN_HTTP_TIMEOUT_MS);
         connection.setReadTimeout(TURN_HTTP_TIMEOUT_MS);
-        int responseCode = connection.getResponseCode();
+        timings.connect(connection);
+        int responseCode = timings.getResponseCode(connection);
         if (responseCode != 200) {
+            HttpTimings.readResponse(connection, false);
             throw new IOException("Non-200 response when requesting TURN server from " + url + " : "
                     + connection.getHeaderField(null));
         }
-        InputStream responseStream = connection.getInputStream();
-        String response = drainStream(responseStream);
-        connection.disconnect();
+        // Read to the end without disconnecting so the connection stays pooled.
+        String response = HttpTimings.readResponse(connection, true);
+        Log.d(TAG, "TURN request " + timings.finish());
         Log.d(TAG, "TURN response: " + response);
-        JSONObject responseJSON = new JSONObject(response);
-        JSONArray iceServers = responseJSON.getJSONArray("iceServers");
-        for (int i = 0; i < iceServers.length(); ++i) {
-            JSONObject server = iceServers.getJSONObject(i);
-            JSONArray turnUrls = server.getJSONArray("urls");
-            String username = server.has("username") ? server.getString("username") : "";
-            String credential = server.has("credential") ? server.getString("credential") : "";
-            for (int j = 0; j < turnUrls.length(); j++) {
-                String turnUrl = turnUrls.getString(j);
-                PeerConnection.IceServer turnServer =
-                        PeerConnection.IceServer.builder(turnUrl)
-                                .setUsername(username)
-                                .setPassword(credential)
-                                .createIceServer();
-                turnServers.add(turnServer);
-            }
+        if (turnServerCache != null) {
+            return turnServerCache.put(url, response);
         }
-        return turnServers;
+        return TurnServerCache.parseIceServers(response);
     }
 
     // Return the list of ICE servers described by a WebRTCPeerConnection
@@ -179,10 +310,4 @@ public class RoomParametersFetcher {
         }
         return ret;
     }
-
-    // Return the contents of an InputStream as a String.
-    private static String drainStream(InputStream in) {
-        Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
-    }
 }
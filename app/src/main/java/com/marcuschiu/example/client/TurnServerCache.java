@@ -0,0 +1,185 @@
+package com.marcuschiu.example.client;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * TURN credentials from the room's ice_server_url, kept in memory and on disk
+ * until shortly before they expire, so repeat calls skip the TURN request.
+ * Also remembers the last ice_server_url, letting the next call start the
+ * TURN request before the join response names it.
+ *
+ * <p>The expiry comes from the response's lifetimeDuration or, failing that,
+ * from the "expiry:user" TURN REST username; otherwise a conservative default
+ * is used.
+ */
+public class TurnServerCache {
+    private static final String TAG = "TurnServerCache";
+    private static final String CACHE_FILE = "turn_servers.json";
+    private static final int CACHE_VERSION = 1;
+    private static final long DEFAULT_LIFETIME_MS = 60 * 60 * 1000;
+    // Credentials closer than this to expiry are refetched, so they stay valid
+    // for the whole call setup and allocation refreshes.
+    private static final long EXPIRY_MARGIN_MS = 10 * 60 * 1000;
+
+    private static TurnServerCache instance;
+
+    private final File cacheFile;
+    private boolean loaded;
+    private String iceServerUrl;
+    private String response;
+    private long expiresAtMs;
+
+    private TurnServerCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the process-wide cache. Does no disk IO; the file is read on
+     * first use, which should be off the main thread.
+     */
+    public static synchronized TurnServerCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new TurnServerCache(new File(context.getApplicationContext().getFilesDir(), CACHE_FILE));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached TURN servers for |iceServerUrl| if they are still
+     * valid, null otherwise.
+     */
+    public synchronized List<PeerConnection.IceServer> getIceServers(String iceServerUrl) {
+        load();
+        if (response == null || !iceServerUrl.equals(this.iceServerUrl)
+                || System.currentTimeMillis() + EXPIRY_MARGIN_MS >= expiresAtMs) {
+            return null;
+        }
+        try {
+            return parseIceServers(response);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the ice_server_url of the last call, valid credentials or not.
+     */
+    public synchronized String getLastIceServerUrl() {
+        load();
+        return iceServerUrl;
+    }
+
+    /**
+     * Parses a TURN response and, if it parses, stores it for |iceServerUrl|.
+     */
+    public synchronized List<PeerConnection.IceServer> put(String iceServerUrl, String response)
+            throws JSONException {
+        List<PeerConnection.IceServer> iceServers = parseIceServers(response);
+        load();
+        this.iceServerUrl = iceServerUrl;
+        this.response = response;
+        this.expiresAtMs = getExpiryMs(new JSONObject(response), System.currentTimeMillis());
+        save();
+        return iceServers;
+    }
+
+    static List<PeerConnection.IceServer> parseIceServers(String response) throws JSONException {
+        List<PeerConnection.IceServer> turnServers = new ArrayList<>();
+        JSONArray iceServers = new JSONObject(response).getJSONArray("iceServers");
+        for (int i = 0; i < iceServers.length(); ++i) {
+            JSONObject server = iceServers.getJSONObject(i);
+            JSONArray turnUrls = server.getJSONArray("urls");
+            String username = server.has("username") ? server.getString("username") : "";
+            String credential = server.has("credential") ? server.getString("credential") : "";
+            for (int j = 0; j < turnUrls.length(); j++) {
+                PeerConnection.IceServer turnServer =
+                        PeerConnection.IceServer.builder(turnUrls.getString(j))
+                                .setUsername(username)
+                                .setPassword(credential)
+                                .createIceServer();
+                turnServers.add(turnServer);
+            }
+        }
+        return turnServers;
+    }
+
+    private static long getExpiryMs(JSONObject response, long nowMs) throws JSONException {
+        // Google's TURN API: "lifetimeDuration": "86400s".
+        String lifetime = response.optString("lifetimeDuration");
+        if (lifetime.endsWith("s")) {
+            try {
+                return nowMs + (long) (Double.parseDouble(lifetime.substring(0, lifetime.length() - 1)) * 1000);
+            } catch (NumberFormatException e) {
+                // Fall through to the username.
+            }
+        }
+        // TURN REST API: username is "<unix expiry>:<user>". Use the earliest.
+        long expiresAtMs = Long.MAX_VALUE;
+        JSONArray iceServers = response.getJSONArray("iceServers");
+        for (int i = 0; i < iceServers.length(); ++i) {
+            String username = iceServers.getJSONObject(i).optString("username");
+            int colon = username.indexOf(':');
+            if (colon > 0) {
+                try {
+                    expiresAtMs = Math.min(expiresAtMs, Long.parseLong(username.substring(0, colon)) * 1000);
+                } catch (NumberFormatException e) {
+                    // Not a timestamp.
+                }
+            }
+        }
+        return expiresAtMs != Long.MAX_VALUE ? expiresAtMs : nowMs + DEFAULT_LIFETIME_MS;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            JSONObject json = new JSONObject(s.hasNext() ? s.next() : "");
+            if (json.getInt("version") != CACHE_VERSION) {
+                return;
+            }
+            iceServerUrl = json.getString("iceServerUrl");
+            response = json.getString("response");
+            expiresAtMs = json.getLong("expiresAt");
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Ignoring unreadable TURN cache: " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("version", CACHE_VERSION);
+            json.put("iceServerUrl", iceServerUrl);
+            json.put("response", response);
+            json.put("expiresAt", expiresAtMs);
+            try (OutputStream out = new FileOutputStream(cacheFile)) {
+                out.write(json.toString().getBytes("UTF-8"));
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to write TURN cache: " + e.getMessage());
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.marcuschiu.example.client;
 import android.os.Handler;
 import android.util.Log;
 
+import com.marcuschiu.example.client.signaling.SignalingCodec;
+import com.marcuschiu.example.client.signaling.SignalingMessage;
 import com.marcuschiu.example.client.util.AsyncHttpURLConnection;
 
 import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver;
@@ -35,7 +37,10 @@ public class WebSocketChannelClient {
     private boolean closeEvent;
     // WebSocket send queue. Messages are added to the queue when WebSocket
     // client is not registered and are consumed in register() call.
-    private final List<String> wsSendQueue = new ArrayList<>();
+    private final List<SignalingMessage> wsSendQueue = new ArrayList<>();
+    // Encodes outgoing messages straight into the send envelope; only used on
+    // the handler thread.
+    private final SignalingCodec codec = new SignalingCodec();
 
     public enum WebSocketConnectionState {NEW, CONNECTED, REGISTERED, CLOSED, ERROR}
 
@@ -95,7 +100,7 @@ public class WebSocketChannelClient {
             ws.sendTextMessage(json.toString());
             state = WebSocketConnectionState.REGISTERED;
             // Send any previously accumulated messages.
-            for (String sendMessage : wsSendQueue) {
+            for (SignalingMessage sendMessage : wsSendQueue) {
                 send(sendMessage);
             }
             wsSendQueue.clear();
@@ -104,31 +109,24 @@ public class WebSocketChannelClient {
         }
     }
 
-    public void send(String message) {
+    public void send(SignalingMessage message) {
         checkIfCalledOnValidThread();
         switch (state) {
             case NEW:
             case CONNECTED:
                 // Store outgoing messages and send them after websocket client
                 // is registered.
-                Log.d(TAG, "WS ACC: " + message);
+                Log.d(TAG, "WS ACC: " + message.type);
                 wsSendQueue.add(message);
                 return;
             case ERROR:
             case CLOSED:
-                Log.e(TAG, "WebSocket send() in error or closed state : " + message);
+                Log.e(TAG, "WebSocket send() in error or closed state : " + message.type);
                 return;
             case REGISTERED:
-                JSONObject json = new JSONObject();
-                try {
-                    json.put("cmd", "send");
-                    json.put("msg", message);
-                    message = json.toString();
-                    Log.d(TAG, "C->WSS: " + message);
-                    ws.sendTextMessage(message);
-                } catch (JSONException e) {
-                    reportError("WebSocket send JSON error: " + e.getMessage());
-                }
+                String frame = codec.encodeWebSocketSend(message);
+                Log.d(TAG, "C->WSS: " + frame);
+                ws.sendTextMessage(frame);
                 break;
         }
     }
@@ -137,7 +135,7 @@ public class WebSocketChannelClient {
         checkIfCalledOnValidThread();
         if (state == WebSocketConnectionState.REGISTERED) {
             // Send "bye" to WebSocket server.
-            send("{\"type\": \"bye\"}");
+            send(SignalingMessage.bye());
             state = WebSocketConnectionState.CONNECTED;
             // Send http DELETE to http WebSocket server.
             sendWSSMessage("DELETE", "");
@@ -4,22 +4,37 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import com.marcuschiu.example.client.signaling.SignalingCodec;
+import com.marcuschiu.example.client.signaling.SignalingMessage;
 import com.marcuschiu.example.client.util.AsyncHttpURLConnection;
-import com.marcuschiu.example.client.util.Util;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.util.List;
+
 public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.WebSocketChannelEvents {
 
     private enum ConnectionState {NEW, CONNECTED, CLOSED, ERROR}
 
     private enum MessageType {MESSAGE, LEAVE}
 
+    // How long the initiator collects ICE candidates after the first one before
+    // POSTing them to the room server as one message. The batch is a
+    // non-standard "candidates" message that stock AppRTC peers drop, so it is
+    // only used once the answer says the other end runs this client.
+    public static final int DEFAULT_CANDIDATE_BATCH_WINDOW_MS = 100;
+    public static final String ROOM_SERVER_URL = "https://appr.tc";
+
     private final Handler handler;
+    // Only used on the handler thread.
+    private final SignalingCodec codec = new SignalingCodec();
+    private final IceCandidateBatcher candidateBatcher;
+    private final TurnServerCache turnServerCache;
+    private final IceServerProber iceServerProber;
+    private final int candidateBatchWindowMs;
     private boolean initiator;
     private SignalingEvents events;
     private WebSocketChannelClient wsClient;
@@ -28,12 +43,63 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     private String messageUrl;
     private String leaveUrl;
 
-    public WebSocketRTCClient(SignalingEvents events) {
-        this.events = events;
+    private WebSocketRTCClient(Builder builder) {
+        this.events = builder.events;
+        this.turnServerCache = builder.turnServerCache;
+        this.iceServerProber = builder.iceServerProber;
+        this.candidateBatchWindowMs = builder.candidateBatchWindowMs;
         final HandlerThread handlerThread = new HandlerThread("WSRTCClient");
         handlerThread.start();
         this.handler = new Handler(handlerThread.getLooper());
         this.wsClient = new WebSocketChannelClient(handler, this);
+        this.candidateBatcher = new IceCandidateBatcher(handler, this::sendCandidateBatch);
+    }
+
+    public static Builder builder(SignalingEvents events) {
+        return new Builder(events);
+    }
+
+    public static class Builder {
+        private final SignalingEvents events;
+        private TurnServerCache turnServerCache;
+        private IceServerProber iceServerProber;
+        private int candidateBatchWindowMs = DEFAULT_CANDIDATE_BATCH_WINDOW_MS;
+
+        private Builder(SignalingEvents events) {
+            this.events = events;
+        }
+
+        /**
+         * TURN credentials cache shared across calls; without one they are
+         * fetched every call.
+         */
+        public Builder setTurnServerCache(TurnServerCache turnServerCache) {
+            this.turnServerCache = turnServerCache;
+            return this;
+        }
+
+        /**
+         * Ranks the ICE servers by round-trip time and prunes the list to the
+         * closest ones; without one every server is used.
+         */
+        public Builder setIceServerProber(IceServerProber iceServerProber) {
+            this.iceServerProber = iceServerProber;
+            return this;
+        }
+
+        /**
+         * Window over which the initiator coalesces ICE candidates into one
+         * POST once the answer has advertised support for batches; 0 always
+         * sends each candidate on its own.
+         */
+        public Builder setCandidateBatchWindowMs(int candidateBatchWindowMs) {
+            this.candidateBatchWindowMs = candidateBatchWindowMs;
+            return this;
+        }
+
+        public WebSocketRTCClient createWebSocketRTCClient() {
+            return new WebSocketRTCClient(this);
+        }
     }
 
     @Override
@@ -48,8 +114,8 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
                         roomState = ConnectionState.CONNECTED;
 
                         initiator = params.initiator;
-                        messageUrl = "https://appr.tc/message/" + roomID + "/" + params.clientId;
-                        leaveUrl = "https://appr.tc/leave/" + roomID + "/" + params.clientId;
+                        messageUrl = ROOM_SERVER_URL + "/message/" + roomID + "/" + params.clientId;
+                        leaveUrl = ROOM_SERVER_URL + "/leave/" + roomID + "/" + params.clientId;
 
                         events.onConnectedToRoom(params);
 
@@ -64,7 +130,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
                 }
             };
 
-            new RoomParametersFetcher("https://appr.tc/join/" + roomID, null, callbacks).makeRequest();
+            new RoomParametersFetcher(ROOM_SERVER_URL + "/join/" + roomID, null, turnServerCache, iceServerProber, callbacks).makeRequest();
         });
     }
 
@@ -77,6 +143,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     }
 
     private void disconnectFromRoomInternal() {
+        candidateBatcher.clear();
         if (roomState == ConnectionState.CONNECTED) {
             sendPostMessage(MessageType.LEAVE, leaveUrl, null);
         }
@@ -84,70 +151,74 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
         if (wsClient != null) {
             wsClient.disconnect(true);
         }
+        Log.d("WSRTCClient", "HTTP executor: " + AsyncHttpURLConnection.getExecutorMetrics());
     }
 
     @Override
     public void sendOfferSdp(final SessionDescription sdp) {
         handler.post(() -> {
-            JSONObject json = new JSONObject();
-            Util.jsonPut(json, "sdp", sdp.description);
-            Util.jsonPut(json, "type", "offer");
-            sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+            // Every offer, ICE restarts included, starts a gathering round.
+            candidateBatcher.startRound();
+            sendPostMessage(MessageType.MESSAGE, messageUrl,
+                    codec.encodeMessage(SignalingMessage.sessionDescription(sdp)));
         });
     }
 
     @Override
     public void sendAnswerSdp(final SessionDescription sdp) {
-        handler.post(() -> {
-            JSONObject json = new JSONObject();
-            Util.jsonPut(json, "sdp", sdp.description);
-            Util.jsonPut(json, "type", "answer");
-            wsClient.send(json.toString());
-        });
+        // Tells the initiator it may send candidates in batches.
+        handler.post(() -> wsClient.send(SignalingMessage.sessionDescription(sdp, true)));
     }
 
     @Override
     public void sendLocalIceCandidate(final IceCandidate candidate) {
         handler.post(() -> {
-            JSONObject json = new JSONObject();
-            Util.jsonPut(json, "type", "candidate");
-            Util.jsonPut(json, "label", candidate.sdpMLineIndex);
-            Util.jsonPut(json, "id", candidate.sdpMid);
-            Util.jsonPut(json, "candidate", candidate.sdp);
             if (initiator) {
-                // Call initiator sends ice candidates to GAE server.
+                // Call initiator sends ice candidates to GAE server, batched to
+                // save a POST per candidate.
                 if (roomState != ConnectionState.CONNECTED) {
                     reportError("Sending ICE candidate in non connected state.");
                     return;
                 }
-                sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+                candidateBatcher.add(candidate);
             } else {
                 // Call receiver sends ice candidates to websocket server.
-                wsClient.send(json.toString());
+                wsClient.send(SignalingMessage.candidate(candidate));
             }
         });
     }
 
+    @Override
+    public void flushLocalIceCandidates() {
+        handler.post(candidateBatcher::flush);
+    }
+
+    private void sendCandidateBatch(List<IceCandidate> candidates) {
+        if (roomState != ConnectionState.CONNECTED) {
+            return;
+        }
+        SignalingMessage message = candidates.size() == 1
+                ? SignalingMessage.candidate(candidates.get(0))
+                : SignalingMessage.candidates(candidates.toArray(new IceCandidate[candidates.size()]));
+        sendPostMessage(MessageType.MESSAGE, messageUrl, codec.encodeMessage(message));
+    }
+
     @Override
     public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
         handler.post(() -> {
-            JSONObject json = new JSONObject();
-            Util.jsonPut(json, "type", "remove-candidates");
-            JSONArray jsonArray = new JSONArray();
-            for (final IceCandidate candidate : candidates) {
-                jsonArray.put(Util.toJsonCandidate(candidate));
-            }
-            Util.jsonPut(json, "candidates", jsonArray);
+            SignalingMessage message = SignalingMessage.removeCandidates(candidates);
             if (initiator) {
                 // Call initiator sends ice candidates to GAE server.
                 if (roomState != ConnectionState.CONNECTED) {
                     reportError("Sending ICE candidate removals in non connected state.");
                     return;
                 }
-                sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+                // Keep removals ordered after the candidates they refer to.
+                candidateBatcher.flush();
+                sendPostMessage(MessageType.MESSAGE, messageUrl, codec.encodeMessage(message));
             } else {
                 // Call receiver sends ice candidates to websocket server.
-                wsClient.send(json.toString());
+                wsClient.send(message);
             }
         });
     }
@@ -201,32 +272,34 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
             return;
         }
         try {
-            JSONObject json = new JSONObject(msg);
-            String msgText = json.getString("msg");
-            json = new JSONObject(msgText);
-            String type = json.optString("type");
-
-            switch (type) {
-                case "candidate":
-                    events.onRemoteIceCandidate(Util.toJavaCandidate(json));
+            // Envelope and payload are decoded in a single pass.
+            SignalingMessage message = codec.decodeWebSocketFrame(msg);
+            switch (message.type) {
+                case CANDIDATE:
+                    events.onRemoteIceCandidate(message.candidate);
+                    break;
+                case CANDIDATES:
+                    for (IceCandidate candidate : message.candidates) {
+                        events.onRemoteIceCandidate(candidate);
+                    }
+                    break;
+                case REMOVE_CANDIDATES:
+                    events.onRemoteIceCandidatesRemoved(message.candidates);
                     break;
-                case "remove-candidates":
-                    JSONArray candidateArray = json.getJSONArray("candidates");
-                    IceCandidate[] candidates = new IceCandidate[candidateArray.length()];
-                    for (int i = 0; i < candidateArray.length(); ++i) {
-                        candidates[i] = Util.toJavaCandidate(candidateArray.getJSONObject(i));
+                case ANSWER:
+                    if (initiator && message.acceptsCandidateBatches && candidateBatchWindowMs > 0) {
+                        Log.d("WSRTCClient", "Remote accepts candidate batches, batching for "
+                                + candidateBatchWindowMs + " ms");
+                        candidateBatcher.setWindowMs(candidateBatchWindowMs);
                     }
-                    events.onRemoteIceCandidatesRemoved(candidates);
+                    events.onRemoteDescription(message.sdp);
                     break;
-                case "answer":
-                case "offer":
-                    events.onRemoteDescription(new SessionDescription(SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp")));
+                case OFFER:
+                    events.onRemoteDescription(message.sdp);
                     break;
-                case "bye":
+                case BYE:
                     events.onChannelClose();
                     break;
-                default:
-                    reportError("Unexpected WebSocket message: " + msg);
             }
         } catch (JSONException e) {
             reportError("WebSocket message JSON parsing error: " + e.toString());
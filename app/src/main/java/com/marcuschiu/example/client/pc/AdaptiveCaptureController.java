@@ -0,0 +1,182 @@
+package com.marcuschiu.example.client.pc;
+
+import android.util.Log;
+
+import org.webrtc.CameraVideoCapturer;
+import org.webrtc.StatsReport;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoSource;
+
+/**
+ * Steps the camera capture format through a fixed resolution/framerate ladder
+ * based on the outgoing video stats: encode load, CPU and bandwidth
+ * limitation flags and the send-side bandwidth estimate.
+ * Stepping down reacts within a couple of seconds; stepping up needs a long
+ * run of headroom, and every change is followed by a hold period, so the
+ * format does not oscillate.
+ *
+ * <p>Camera capturers are reconfigured with changeCaptureFormat so the camera
+ * and ISP stop producing pixels the encoder would drop; other capturers are
+ * scaled with VideoSource.adaptOutputFormat. The sender caps set through
+ * {@link #setSenderCaps} are a ceiling applied on top of whichever rung is
+ * current, so the controller owns every adaptOutputFormat call. Fed by the
+ * call's {@link StatsCollector}; all methods run on the peer connection
+ * executor.
+ */
+class AdaptiveCaptureController implements StatsCollector.Listener {
+    private static final String TAG = "AdaptiveCapture";
+
+    static final CaptureFormat[] LADDER = {
+            new CaptureFormat(320, 180, 15, 0),
+            new CaptureFormat(640, 360, 30, 400),
+            new CaptureFormat(960, 540, 30, 800),
+            new CaptureFormat(1280, 720, 30, 1500),
+    };
+
+    // Consecutive samples needed before stepping down / up.
+    private static final int STEP_DOWN_SAMPLES = 2;
+    private static final int STEP_UP_SAMPLES = 10;
+    // Samples ignored after a change while the encoder settles.
+    private static final int HOLD_SAMPLES = 5;
+    private static final int OVERUSE_ENCODE_USAGE_PERCENT = 85;
+    private static final int UNDERUSE_ENCODE_USAGE_PERCENT = 60;
+    // Bandwidth needed above the next level's minimum before stepping up.
+    private static final double STEP_UP_BANDWIDTH_HEADROOM = 1.25;
+
+    private final VideoCapturer videoCapturer;
+    private final VideoSource videoSource;
+
+    private boolean enabled;
+    private int level;
+    private int pressureSamples;
+    private int headroomSamples;
+    private int holdSamples;
+    // Ceiling from PeerConnectionClient.setVideoSenderParameters.
+    private int senderMaxFramerate = Integer.MAX_VALUE;
+    private double senderScaleResolutionDownBy = 1.0;
+
+    /**
+     * One rung of the capture ladder.
+     */
+    static class CaptureFormat {
+        final int width;
+        final int height;
+        final int fps;
+        // Send bandwidth below which this format is not sustainable.
+        final int minBitrateKbps;
+
+        CaptureFormat(int width, int height, int fps, int minBitrateKbps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.minBitrateKbps = minBitrateKbps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+
+    AdaptiveCaptureController(VideoCapturer videoCapturer, VideoSource videoSource) {
+        this.videoCapturer = videoCapturer;
+        this.videoSource = videoSource;
+        this.level = LADDER.length - 1;
+    }
+
+    /**
+     * Format capture is started with, and restarted with after being stopped.
+     */
+    CaptureFormat getCurrentFormat() {
+        return LADDER[level];
+    }
+
+    /**
+     * Caps the source output at the current rung's framerate and resolution,
+     * or |maxFramerate| and the rung's resolution divided by
+     * |scaleResolutionDownBy| when lower, now and after every later step.
+     */
+    void setSenderCaps(int maxFramerate, double scaleResolutionDownBy) {
+        senderMaxFramerate = maxFramerate;
+        senderScaleResolutionDownBy = scaleResolutionDownBy;
+        adaptSource(LADDER[level]);
+    }
+
+    /**
+     * Adapts only while enabled, i.e. while the call is connected.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        pressureSamples = 0;
+        headroomSamples = 0;
+    }
+
+    @Override
+    public void onStatsSample(StatsCollector stats, StatsReport[] reports) {
+        if (!enabled) {
+            return;
+        }
+        if (holdSamples > 0) {
+            holdSamples--;
+            return;
+        }
+
+        final double encodeUsagePercent = stats.getLatest(StatsCollector.Metric.ENCODE_USAGE_PERCENT);
+        final double availableSendKbps = stats.getLatest(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS);
+        // NaN compares false, so metrics that were not reported never count
+        // as pressure or headroom.
+        CaptureFormat current = LADDER[level];
+        boolean cpuPressure = stats.getLatest(StatsCollector.Metric.CPU_LIMITED) == 1
+                || encodeUsagePercent > OVERUSE_ENCODE_USAGE_PERCENT;
+        boolean bandwidthPressure = stats.getLatest(StatsCollector.Metric.BANDWIDTH_LIMITED) == 1
+                || availableSendKbps < current.minBitrateKbps;
+        if (cpuPressure || bandwidthPressure) {
+            headroomSamples = 0;
+            if (++pressureSamples >= STEP_DOWN_SAMPLES && level > 0) {
+                changeLevel(level - 1, (cpuPressure ? "cpu" : "bandwidth") + " limited, " + describe(stats));
+            }
+            return;
+        }
+        pressureSamples = 0;
+
+        if (level == LADDER.length - 1) {
+            return;
+        }
+        CaptureFormat next = LADDER[level + 1];
+        boolean headroom = encodeUsagePercent < UNDERUSE_ENCODE_USAGE_PERCENT
+                && availableSendKbps >= next.minBitrateKbps * STEP_UP_BANDWIDTH_HEADROOM;
+        if (!headroom) {
+            headroomSamples = 0;
+        } else if (++headroomSamples >= STEP_UP_SAMPLES) {
+            changeLevel(level + 1, "headroom, " + describe(stats));
+        }
+    }
+
+    private static String describe(StatsCollector stats) {
+        return "encode usage " + stats.getLatest(StatsCollector.Metric.ENCODE_USAGE_PERCENT)
+                + "%, avg encode " + stats.getLatest(StatsCollector.Metric.AVG_ENCODE_MS)
+                + " ms, bwe " + stats.getLatest(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS)
+                + " kbps, sent " + stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS) + " kbps";
+    }
+
+    private void changeLevel(int newLevel, String reason) {
+        CaptureFormat format = LADDER[newLevel];
+        Log.d(TAG, "Capture " + LADDER[level] + " -> " + format + ": " + reason);
+        level = newLevel;
+        pressureSamples = 0;
+        headroomSamples = 0;
+        holdSamples = HOLD_SAMPLES;
+        if (videoCapturer instanceof CameraVideoCapturer) {
+            videoCapturer.changeCaptureFormat(format.width, format.height, format.fps);
+        }
+        adaptSource(format);
+    }
+
+    // For cameras this only differs from the capture format under sender caps.
+    private void adaptSource(CaptureFormat format) {
+        if (videoSource != null) {
+            videoSource.adaptOutputFormat((int) (format.width / senderScaleResolutionDownBy),
+                    (int) (format.height / senderScaleResolutionDownBy), Math.min(format.fps, senderMaxFramerate));
+        }
+    }
+}
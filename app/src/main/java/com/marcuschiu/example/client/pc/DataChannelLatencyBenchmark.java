@@ -0,0 +1,349 @@
+package com.marcuschiu.example.client.pc;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures send-to-receive latency of {@link UnreliableChannel} between two
+ * peer connections in this process, connected over the device's own host
+ * candidates. Both ends share one clock, so the one-way latency of every
+ * message is measured directly: it covers the JNI hops, the SCTP and DTLS
+ * stacks and the loopback path, but no real network.
+ *
+ * <p>Needs a network interface with an address (Wi-Fi or cellular), since
+ * WebRTC does not gather loopback candidates. Runs on the peer connection
+ * executor and shares the engine's factory, so it should not overlap a call.
+ */
+public class DataChannelLatencyBenchmark {
+    private static final String TAG = "DataChannelBenchmark";
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long OPEN_POLL_INTERVAL_MS = 10;
+    // Time for the last messages to arrive after the last one is sent.
+    private static final long DRAIN_MS = 1000;
+    // Sequence number and send time.
+    private static final int MESSAGE_SIZE = 4 + 8;
+
+    public static class Result {
+        public final int sent;
+        public final int received;
+        public final double p50Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Result(int sent, int received, double p50Ms, double p99Ms, double maxMs) {
+            this.sent = sent;
+            this.received = received;
+            this.p50Ms = p50Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+
+        @Override
+        public String toString() {
+            return received + "/" + sent + " received, p50 " + String.format("%.3f", p50Ms) + " ms, p99 "
+                    + String.format("%.3f", p99Ms) + " ms, max " + String.format("%.3f", maxMs) + " ms";
+        }
+    }
+
+    /**
+     * Callbacks run on the peer connection executor.
+     */
+    public interface Callback {
+        void onBenchmarkComplete(Result result);
+
+        void onBenchmarkFailed(String error);
+    }
+
+    private final ScheduledExecutorService executor = PeerConnectionEngine.getExecutor();
+    private final PeerConnectionEngine engine = PeerConnectionEngine.getInstance();
+    private final Context context;
+    private final int messages;
+    private final long intervalMs;
+    private final Callback callback;
+
+    private final Peer sender = new Peer("sender");
+    private final Peer receiver = new Peer("receiver");
+    // Latency per sequence number; -1 while not received.
+    private final AtomicLongArray latenciesNs;
+    private ScheduledFuture<?> task;
+    private long connectStartMs;
+    private int nextSeq;
+    private boolean finished;
+
+    private DataChannelLatencyBenchmark(Context context, int messages, long intervalMs, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.messages = messages;
+        this.intervalMs = intervalMs;
+        this.callback = callback;
+        this.latenciesNs = new AtomicLongArray(messages);
+    }
+
+    /**
+     * Sends |messages| messages |intervalMs| apart from one peer to the other
+     * and reports the latency percentiles.
+     */
+    public static void run(Context context, int messages, long intervalMs, Callback callback) {
+        final DataChannelLatencyBenchmark benchmark =
+                new DataChannelLatencyBenchmark(context, messages, intervalMs, callback);
+        benchmark.engine.acquire();
+        benchmark.executor.execute(benchmark::start);
+    }
+
+    private class Peer implements PeerConnection.Observer {
+        final String name;
+        final UnreliableChannel channel = new UnreliableChannel();
+        PeerConnection pc;
+        Peer remote;
+
+        Peer(String name) {
+            this.name = name;
+        }
+
+        void create(PeerConnectionFactory factory, Peer remote) {
+            this.remote = remote;
+            pc = factory.createPeerConnection(new PeerConnection.RTCConfiguration(new ArrayList<>()), this);
+            channel.attach(pc.createDataChannel(UnreliableChannel.LABEL, UnreliableChannel.createInit()));
+        }
+
+        void dispose() {
+            channel.detach();
+            if (pc != null) {
+                pc.dispose();
+                pc = null;
+            }
+        }
+
+        @Override
+        public void onIceCandidate(final IceCandidate candidate) {
+            executor.execute(() -> {
+                if (remote.pc != null) {
+                    remote.pc.addIceCandidate(candidate);
+                }
+            });
+        }
+
+        @Override
+        public void onIceConnectionChange(PeerConnection.IceConnectionState newState) {
+            Log.d(TAG, name + " ICE " + newState);
+            if (newState == PeerConnection.IceConnectionState.FAILED) {
+                executor.execute(() -> fail(name + " ICE failed"));
+            }
+        }
+
+        @Override
+        public void onSignalingChange(PeerConnection.SignalingState newState) {
+        }
+
+        @Override
+        public void onIceConnectionReceivingChange(boolean receiving) {
+        }
+
+        @Override
+        public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
+        }
+
+        @Override
+        public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+        }
+
+        @Override
+        public void onAddStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onRemoveStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onDataChannel(DataChannel dataChannel) {
+        }
+
+        @Override
+        public void onRenegotiationNeeded() {
+        }
+
+        @Override
+        public void onAddTrack(RtpReceiver receiver, MediaStream[] mediaStreams) {
+        }
+    }
+
+    // Runs |onSuccess| on the executor; fails the benchmark otherwise.
+    private class Step implements SdpObserver {
+        final String name;
+        final SdpCallback onSuccess;
+
+        Step(String name, SdpCallback onSuccess) {
+            this.name = name;
+            this.onSuccess = onSuccess;
+        }
+
+        @Override
+        public void onCreateSuccess(SessionDescription sdp) {
+            executor.execute(() -> {
+                if (!finished) {
+                    onSuccess.run(sdp);
+                }
+            });
+        }
+
+        @Override
+        public void onSetSuccess() {
+            onCreateSuccess(null);
+        }
+
+        @Override
+        public void onCreateFailure(String error) {
+            executor.execute(() -> fail(name + ": " + error));
+        }
+
+        @Override
+        public void onSetFailure(String error) {
+            onCreateFailure(error);
+        }
+    }
+
+    private interface SdpCallback {
+        void run(SessionDescription sdp);
+    }
+
+    private void start() {
+        for (int i = 0; i < messages; i++) {
+            latenciesNs.set(i, -1);
+        }
+        final PeerConnectionFactory factory;
+        try {
+            factory = engine.getFactory(context, false);
+        } catch (RuntimeException e) {
+            fail("Cannot create factory: " + e.getMessage());
+            return;
+        }
+        sender.create(factory, receiver);
+        receiver.create(factory, sender);
+        receiver.channel.setListener(this::onMessage);
+        connectStartMs = System.currentTimeMillis();
+
+        final MediaConstraints constraints = new MediaConstraints();
+        sender.pc.createOffer(new Step("create offer", offer -> {
+            sender.pc.setLocalDescription(new Step("set offer", ignored -> {}), offer);
+            receiver.pc.setRemoteDescription(new Step("set remote offer", ignored ->
+                    receiver.pc.createAnswer(new Step("create answer", answer -> {
+                        receiver.pc.setLocalDescription(new Step("set answer", unused -> {}), answer);
+                        sender.pc.setRemoteDescription(new Step("set remote answer", unused -> {}), answer);
+                    }), constraints)), offer);
+        }), constraints);
+        task = executor.scheduleAtFixedRate(this::waitForOpen, OPEN_POLL_INTERVAL_MS, OPEN_POLL_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void waitForOpen() {
+        if (finished) {
+            return;
+        }
+        if (!sender.channel.isOpen() || !receiver.channel.isOpen()) {
+            if (System.currentTimeMillis() - connectStartMs > CONNECT_TIMEOUT_MS) {
+                fail("Channel not open after " + CONNECT_TIMEOUT_MS + " ms");
+            }
+            return;
+        }
+        Log.d(TAG, "Connected in " + (System.currentTimeMillis() - connectStartMs) + " ms");
+        task.cancel(false);
+        task = executor.scheduleAtFixedRate(this::sendNext, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendNext() {
+        if (finished) {
+            return;
+        }
+        if (nextSeq == messages) {
+            task.cancel(false);
+            task = executor.schedule(this::finish, DRAIN_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        final ByteBuffer buffer = sender.channel.acquireBuffer();
+        buffer.putInt(nextSeq++);
+        buffer.putLong(System.nanoTime());
+        buffer.flip();
+        sender.channel.send(buffer);
+    }
+
+    // Signaling thread.
+    private void onMessage(ByteBuffer data) {
+        final long nowNs = System.nanoTime();
+        if (data.remaining() < MESSAGE_SIZE) {
+            return;
+        }
+        final int seq = data.getInt();
+        final long sentNs = data.getLong();
+        if (seq >= 0 && seq < messages) {
+            latenciesNs.set(seq, nowNs - sentNs);
+        }
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        final long[] received = new long[messages];
+        int count = 0;
+        for (int i = 0; i < messages; i++) {
+            final long latencyNs = latenciesNs.get(i);
+            if (latencyNs >= 0) {
+                received[count++] = latencyNs;
+            }
+        }
+        release();
+        if (count == 0) {
+            callback.onBenchmarkFailed("No message received out of " + nextSeq);
+            return;
+        }
+        Arrays.sort(received, 0, count);
+        final Result result = new Result(nextSeq, count, percentileMs(received, count, 0.5),
+                percentileMs(received, count, 0.99), received[count - 1] / 1e6);
+        Log.d(TAG, "Unreliable channel latency: " + result);
+        callback.onBenchmarkComplete(result);
+    }
+
+    private void fail(String error) {
+        if (finished) {
+            return;
+        }
+        release();
+        Log.w(TAG, "Benchmark failed: " + error);
+        callback.onBenchmarkFailed(error);
+    }
+
+    private void release() {
+        finished = true;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        sender.dispose();
+        receiver.dispose();
+        engine.release();
+    }
+
+    // Nearest-rank percentile of the first |count| sorted values.
+    private static double percentileMs(long[] sorted, int count, double percentile) {
+        final int rank = (int) Math.ceil(percentile * count);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,76 @@
+package com.marcuschiu.example.client.pc;
+
+import java.io.File;
+
+/**
+ * One file or blob sent or received over the file transfer data channel.
+ * Progress fields are written on the peer connection executor and may be
+ * read from any thread.
+ */
+public class FileTransfer {
+    public enum Direction { OUTGOING, INCOMING }
+
+    /**
+     * Callbacks run on the peer connection executor.
+     */
+    public interface Listener {
+        // At most every FileTransferChannel.PROGRESS_INTERVAL_MS per transfer.
+        void onTransferProgress(FileTransfer transfer);
+
+        void onTransferComplete(FileTransfer transfer);
+
+        void onTransferFailed(FileTransfer transfer, String error);
+    }
+
+    // Chosen by the sender, unique per direction and call.
+    public final int id;
+    public final Direction direction;
+    public final String name;
+    public final long size;
+    // Where an incoming transfer is written; the source of an outgoing file,
+    // null for an outgoing blob.
+    public final File file;
+
+    // Outgoing: bytes the SCTP stack has taken off the send buffer.
+    // Incoming: bytes written to |file|.
+    volatile long bytesTransferred;
+    volatile long startedAtMs;
+    volatile long finishedAtMs;
+
+    FileTransfer(int id, Direction direction, String name, long size, File file) {
+        this.id = id;
+        this.direction = direction;
+        this.name = name;
+        this.size = size;
+        this.file = file;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    public boolean isFinished() {
+        return finishedAtMs != 0;
+    }
+
+    public long getDurationMs() {
+        if (startedAtMs == 0) {
+            return 0;
+        }
+        return (finishedAtMs != 0 ? finishedAtMs : System.currentTimeMillis()) - startedAtMs;
+    }
+
+    /**
+     * Average rate since the first byte, in kilobits per second.
+     */
+    public long getThroughputKbps() {
+        final long durationMs = getDurationMs();
+        return durationMs > 0 ? bytesTransferred * 8 / durationMs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return direction + " #" + id + " " + name + ": " + bytesTransferred + "/" + size + " bytes in "
+                + getDurationMs() + " ms, " + getThroughputKbps() + " kbps";
+    }
+}
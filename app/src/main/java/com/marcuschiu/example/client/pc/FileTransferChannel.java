@@ -0,0 +1,528 @@
+package com.marcuschiu.example.client.pc;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.DataChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends files and blobs over a reliable, ordered data channel and writes the
+ * ones the remote side sends into a directory.
+ *
+ * <p>Each side sends on the channel it created ({@link #setSendChannel}) and
+ * receives on the one the remote side created ({@link #setReceiveChannel}).
+ * A transfer is a JSON header sent as text followed by binary chunks of at
+ * most {@link #CHUNK_SIZE}; the receiver knows the size from the header, so
+ * there is no trailer. Transfers are sent one after the other.
+ *
+ * <p>Files are read through memory-mapped windows of their FileChannel, so
+ * the file is never read into the Java heap as a whole; DataChannel.send
+ * still copies each chunk into a byte array on its way to native code.
+ * Flow control follows bufferedAmount: chunks are queued until it reaches
+ * {@link #HIGH_WATER_MARK} and sending resumes once onBufferedAmountChange
+ * reports it back under {@link #LOW_WATER_MARK}. Without that the whole file
+ * would be copied into native memory at once, and the channel is closed
+ * when its send buffer overflows. An outgoing transfer completes when its
+ * last byte has left the send buffer.
+ *
+ * <p>An incoming transfer larger than {@link #MAX_INCOMING_SIZE}, or than
+ * the free space of the receive directory less {@link #MIN_FREE_SPACE}, is
+ * refused before its file is created, and its chunks are dropped.
+ *
+ * <p>All state lives on the peer connection executor; data channel callbacks
+ * arrive on the signaling thread and are posted there.
+ */
+class FileTransferChannel {
+    private static final String TAG = "FileTransferChannel";
+    static final String LABEL = "file-transfer";
+    // Largest message all SCTP stacks handle without blocking the others on
+    // the association.
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final long HIGH_WATER_MARK = 1024 * 1024;
+    static final long LOW_WATER_MARK = 256 * 1024;
+    static final long PROGRESS_INTERVAL_MS = 500;
+    static final long MAX_INCOMING_SIZE = 2L * 1024 * 1024 * 1024;
+    // Left free on the receiving volume after an incoming transfer.
+    static final long MIN_FREE_SPACE = 64 * 1024 * 1024;
+    // Part of a file mapped at a time while it is sent.
+    private static final int MAP_WINDOW_SIZE = 4 * 1024 * 1024;
+    private static final String TYPE_FILE = "file";
+    private static final String TYPE_ABORT = "abort";
+
+    private final Executor executor;
+    private final File receiveDirectory;
+    private final FileTransfer.Listener listener;
+
+    private DataChannel sendChannel;
+    private DataChannel receiveChannel;
+    // Coalesces the posts of onBufferedAmountChange.
+    private final AtomicBoolean drainPosted = new AtomicBoolean();
+
+    private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+    private Outgoing sending;
+    // Fully queued on the channel, waiting for the send buffer to drain.
+    private final ArrayDeque<Outgoing> draining = new ArrayDeque<>();
+    // Bytes ever passed to send(), headers included.
+    private long bytesQueued;
+    private int nextId;
+    private Incoming receiving;
+
+    private static class Outgoing {
+        final FileTransfer transfer;
+        // Null for blobs.
+        final FileChannel fileChannel;
+        // Unsent rest of the mapped window, or of the blob.
+        ByteBuffer window;
+        // File offset the next window is mapped from.
+        long mapPosition;
+        // bytesQueued after the header and after the last chunk; -1 until then.
+        long dataOffset = -1;
+        long endOffset = -1;
+        long lastProgressMs;
+
+        Outgoing(FileTransfer transfer, FileChannel fileChannel, ByteBuffer window) {
+            this.transfer = transfer;
+            this.fileChannel = fileChannel;
+            this.window = window;
+        }
+
+        // Returns null once everything has been handed out.
+        ByteBuffer nextChunk() throws IOException {
+            if (!window.hasRemaining()) {
+                if (fileChannel == null || mapPosition >= transfer.size) {
+                    return null;
+                }
+                final long length = Math.min(MAP_WINDOW_SIZE, transfer.size - mapPosition);
+                window = fileChannel.map(FileChannel.MapMode.READ_ONLY, mapPosition, length);
+                mapPosition += length;
+            }
+            final ByteBuffer chunk = window.slice();
+            final int length = Math.min(CHUNK_SIZE, chunk.remaining());
+            chunk.limit(length);
+            window.position(window.position() + length);
+            return chunk;
+        }
+    }
+
+    private static class Incoming {
+        final FileTransfer transfer;
+        final FileChannel fileChannel;
+        long lastProgressMs;
+
+        Incoming(FileTransfer transfer, FileChannel fileChannel) {
+            this.transfer = transfer;
+            this.fileChannel = fileChannel;
+        }
+    }
+
+    FileTransferChannel(Executor executor, File receiveDirectory, FileTransfer.Listener listener) {
+        this.executor = executor;
+        this.receiveDirectory = receiveDirectory;
+        this.listener = listener;
+    }
+
+    static DataChannel.Init createInit() {
+        DataChannel.Init init = new DataChannel.Init();
+        init.ordered = true;
+        return init;
+    }
+
+    void setSendChannel(final DataChannel channel) {
+        sendChannel = channel;
+        channel.registerObserver(new DataChannel.Observer() {
+            @Override
+            public void onBufferedAmountChange(long previousAmount) {
+                // Called for every message queued and sent; only wake the
+                // executor while the buffer drains below the low-water mark.
+                final long amount = channel.bufferedAmount();
+                if (amount < previousAmount && amount <= LOW_WATER_MARK && drainPosted.compareAndSet(false, true)) {
+                    executor.execute(FileTransferChannel.this::drain);
+                }
+            }
+
+            @Override
+            public void onStateChange() {
+                final DataChannel.State state = channel.state();
+                executor.execute(() -> {
+                    if (channel != sendChannel) {
+                        return;
+                    }
+                    if (state == DataChannel.State.OPEN) {
+                        pump();
+                    } else if (state == DataChannel.State.CLOSED) {
+                        failOutgoing("Data channel closed");
+                    }
+                });
+            }
+
+            @Override
+            public void onMessage(DataChannel.Buffer buffer) {
+            }
+        });
+    }
+
+    void setReceiveChannel(final DataChannel channel) {
+        if (receiveChannel != null) {
+            Log.w(TAG, "Replacing receive channel " + receiveChannel.id() + " with " + channel.id());
+            disposeChannel(receiveChannel);
+        }
+        receiveChannel = channel;
+        channel.registerObserver(new DataChannel.Observer() {
+            @Override
+            public void onBufferedAmountChange(long previousAmount) {
+            }
+
+            @Override
+            public void onStateChange() {
+                final DataChannel.State state = channel.state();
+                executor.execute(() -> {
+                    if (channel == receiveChannel && state == DataChannel.State.CLOSED) {
+                        failIncoming("Data channel closed");
+                    }
+                });
+            }
+
+            @Override
+            public void onMessage(DataChannel.Buffer buffer) {
+                // |buffer| wraps native memory that is only valid during the
+                // callback.
+                final byte[] data = new byte[buffer.data.remaining()];
+                buffer.data.get(data);
+                final boolean binary = buffer.binary;
+                executor.execute(() -> {
+                    if (channel == receiveChannel) {
+                        receive(data, binary);
+                    }
+                });
+            }
+        });
+    }
+
+    void sendFile(File file) {
+        final FileTransfer transfer = new FileTransfer(nextId++, FileTransfer.Direction.OUTGOING, file.getName(),
+                file.length(), file);
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            fail(transfer, "Cannot open " + file + ": " + e.getMessage());
+            return;
+        }
+        enqueue(new Outgoing(transfer, fileChannel, ByteBuffer.allocate(0)));
+    }
+
+    /**
+     * Sends the remaining bytes of |data|. The buffer must not be modified
+     * until the transfer has completed or failed.
+     */
+    void sendBlob(String name, ByteBuffer data) {
+        final FileTransfer transfer = new FileTransfer(nextId++, FileTransfer.Direction.OUTGOING, name,
+                data.remaining(), null);
+        enqueue(new Outgoing(transfer, null, data.slice()));
+    }
+
+    /**
+     * Fails the transfers in progress and disposes both channels.
+     */
+    void close() {
+        failOutgoing("Call ended");
+        failIncoming("Call ended");
+        if (sendChannel != null) {
+            disposeChannel(sendChannel);
+            sendChannel = null;
+        }
+        if (receiveChannel != null) {
+            disposeChannel(receiveChannel);
+            receiveChannel = null;
+        }
+    }
+
+    private void enqueue(Outgoing outgoing) {
+        if (sendChannel == null) {
+            fail(outgoing, "Data channel closed");
+            return;
+        }
+        queue.add(outgoing);
+        pump();
+    }
+
+    private void drain() {
+        drainPosted.set(false);
+        if (sendChannel == null) {
+            return;
+        }
+        updateProgress(System.currentTimeMillis());
+        pump();
+    }
+
+    // Queues chunks until the send buffer reaches the high-water mark.
+    private void pump() {
+        if (sendChannel == null || sendChannel.state() != DataChannel.State.OPEN) {
+            return;
+        }
+        long buffered = sendChannel.bufferedAmount();
+        while (buffered < HIGH_WATER_MARK) {
+            if (sending == null) {
+                sending = queue.poll();
+                if (sending == null) {
+                    break;
+                }
+                final byte[] header = header(TYPE_FILE, sending.transfer);
+                if (!send(ByteBuffer.wrap(header), false)) {
+                    return;
+                }
+                buffered += header.length;
+                sending.dataOffset = bytesQueued;
+                sending.transfer.startedAtMs = System.currentTimeMillis();
+            }
+
+            ByteBuffer chunk;
+            try {
+                chunk = sending.nextChunk();
+            } catch (IOException e) {
+                final Outgoing aborted = sending;
+                sending = null;
+                send(ByteBuffer.wrap(header(TYPE_ABORT, aborted.transfer)), false);
+                fail(aborted, "Read failed: " + e.getMessage());
+                continue;
+            }
+            if (chunk == null) {
+                sending.endOffset = bytesQueued;
+                closeQuietly(sending.fileChannel);
+                draining.add(sending);
+                sending = null;
+                continue;
+            }
+            final int length = chunk.remaining();
+            if (!send(chunk, true)) {
+                return;
+            }
+            buffered += length;
+        }
+        // Transfers that fit in the buffer at once may already be out.
+        updateProgress(System.currentTimeMillis());
+    }
+
+    private boolean send(ByteBuffer data, boolean binary) {
+        final int length = data.remaining();
+        if (!sendChannel.send(new DataChannel.Buffer(data, binary))) {
+            failOutgoing("Data channel send failed");
+            return false;
+        }
+        bytesQueued += length;
+        return true;
+    }
+
+    private void updateProgress(long nowMs) {
+        final long sent = bytesQueued - sendChannel.bufferedAmount();
+        while (!draining.isEmpty()) {
+            final Outgoing outgoing = draining.peek();
+            if (sent < outgoing.endOffset) {
+                reportProgress(outgoing, sent, nowMs);
+                return;
+            }
+            draining.poll();
+            outgoing.transfer.bytesTransferred = outgoing.transfer.size;
+            outgoing.transfer.finishedAtMs = nowMs;
+            Log.d(TAG, "Sent " + outgoing.transfer);
+            listener.onTransferComplete(outgoing.transfer);
+        }
+        if (sending != null) {
+            reportProgress(sending, sent, nowMs);
+        }
+    }
+
+    private void reportProgress(Outgoing outgoing, long sent, long nowMs) {
+        outgoing.transfer.bytesTransferred = Math.max(0, Math.min(outgoing.transfer.size, sent - outgoing.dataOffset));
+        if (nowMs - outgoing.lastProgressMs >= PROGRESS_INTERVAL_MS) {
+            outgoing.lastProgressMs = nowMs;
+            listener.onTransferProgress(outgoing.transfer);
+        }
+    }
+
+    private void receive(byte[] data, boolean binary) {
+        if (!binary) {
+            receiveControl(new String(data, StandardCharsets.UTF_8));
+            return;
+        }
+        if (receiving == null) {
+            Log.w(TAG, "Dropping " + data.length + " bytes outside a transfer");
+            return;
+        }
+        final FileTransfer transfer = receiving.transfer;
+        if (transfer.bytesTransferred + data.length > transfer.size) {
+            failIncoming("More data than announced");
+            return;
+        }
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                receiving.fileChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            failIncoming("Write failed: " + e.getMessage());
+            return;
+        }
+        transfer.bytesTransferred += data.length;
+        final long nowMs = System.currentTimeMillis();
+        if (transfer.bytesTransferred == transfer.size) {
+            finishIncoming(nowMs);
+        } else if (nowMs - receiving.lastProgressMs >= PROGRESS_INTERVAL_MS) {
+            receiving.lastProgressMs = nowMs;
+            listener.onTransferProgress(transfer);
+        }
+    }
+
+    private void receiveControl(String message) {
+        try {
+            final JSONObject json = new JSONObject(message);
+            final String type = json.getString("type");
+            if (type.equals(TYPE_ABORT)) {
+                failIncoming("Aborted by sender");
+            } else if (type.equals(TYPE_FILE)) {
+                if (receiving != null) {
+                    failIncoming("Interrupted by the next transfer");
+                }
+                startIncoming(json.getInt("id"), json.getString("name"), json.getLong("size"));
+            } else {
+                Log.w(TAG, "Unknown message type: " + type);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Invalid control message: " + message);
+        }
+    }
+
+    private void startIncoming(int id, String name, long size) {
+        final File file = uniqueFile(name);
+        final FileTransfer transfer = new FileTransfer(id, FileTransfer.Direction.INCOMING, name, size, file);
+        transfer.startedAtMs = System.currentTimeMillis();
+        // The size comes from the remote side; check it before creating the
+        // file. The chunks of a refused transfer are dropped.
+        if (size < 0 || size > MAX_INCOMING_SIZE) {
+            fail(transfer, "Refusing " + size + " bytes, limit is " + MAX_INCOMING_SIZE);
+            return;
+        }
+        final long usableSpace = receiveDirectory.getUsableSpace();
+        if (size > usableSpace - MIN_FREE_SPACE) {
+            fail(transfer, "Refusing " + size + " bytes, " + usableSpace + " bytes free in " + receiveDirectory);
+            return;
+        }
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            // The chunks that follow are dropped.
+            fail(transfer, "Cannot create " + file + ": " + e.getMessage());
+            return;
+        }
+        receiving = new Incoming(transfer, fileChannel);
+        if (size == 0) {
+            finishIncoming(transfer.startedAtMs);
+        }
+    }
+
+    private void finishIncoming(long nowMs) {
+        final FileTransfer transfer = receiving.transfer;
+        closeQuietly(receiving.fileChannel);
+        receiving = null;
+        transfer.finishedAtMs = nowMs;
+        Log.d(TAG, "Received " + transfer);
+        listener.onTransferComplete(transfer);
+    }
+
+    private void failIncoming(String error) {
+        if (receiving == null) {
+            return;
+        }
+        final Incoming incoming = receiving;
+        receiving = null;
+        closeQuietly(incoming.fileChannel);
+        if (!incoming.transfer.file.delete()) {
+            Log.w(TAG, "Cannot delete " + incoming.transfer.file);
+        }
+        fail(incoming.transfer, error);
+    }
+
+    private void failOutgoing(String error) {
+        if (sending != null) {
+            fail(sending, error);
+            sending = null;
+        }
+        while (!draining.isEmpty()) {
+            fail(draining.poll(), error);
+        }
+        while (!queue.isEmpty()) {
+            fail(queue.poll(), error);
+        }
+    }
+
+    private void fail(Outgoing outgoing, String error) {
+        closeQuietly(outgoing.fileChannel);
+        fail(outgoing.transfer, error);
+    }
+
+    private void fail(FileTransfer transfer, String error) {
+        transfer.finishedAtMs = System.currentTimeMillis();
+        Log.w(TAG, "Transfer " + transfer + " failed: " + error);
+        listener.onTransferFailed(transfer, error);
+    }
+
+    // Keeps files from earlier transfers with the same name.
+    private File uniqueFile(String name) {
+        String baseName = new File(name).getName();
+        if (baseName.isEmpty()) {
+            baseName = "blob";
+        }
+        if (!receiveDirectory.isDirectory() && !receiveDirectory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + receiveDirectory);
+        }
+        File file = new File(receiveDirectory, baseName);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(receiveDirectory, i + "-" + baseName);
+        }
+        return file;
+    }
+
+    private static byte[] header(String type, FileTransfer transfer) {
+        final JSONObject json = new JSONObject();
+        try {
+            json.put("type", type);
+            json.put("id", transfer.id);
+            if (type.equals(TYPE_FILE)) {
+                json.put("name", transfer.name);
+                json.put("size", transfer.size);
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void disposeChannel(DataChannel channel) {
+        channel.unregisterObserver();
+        channel.close();
+        channel.dispose();
+    }
+
+    private static void closeQuietly(FileChannel fileChannel) {
+        if (fileChannel == null) {
+            return;
+        }
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.marcuschiu.example.client.pc;
+
+import org.webrtc.PeerConnection;
+
+/**
+ * Trade-off between audio latency and smoothness, expressed as the NetEq
+ * jitter buffer settings of the RTC configuration. The effect shows in the
+ * AUDIO_JITTER_BUFFER_MS and AUDIO_CURRENT_DELAY_MS metrics of
+ * {@link StatsCollector}.
+ *
+ * <p>The profile is chosen per call in {@link PeerConnectionParameters} and
+ * applied when the peer connection is created. The bundled WebRTC rejects
+ * jitter buffer changes through setConfiguration, so it cannot be switched
+ * mid-call.
+ */
+public enum LatencyProfile {
+    /**
+     * Small buffer that is drained quickly after a burst: lowest delay, more
+     * audible concealment on bad networks.
+     */
+    INTERACTIVE(15, true),
+    /**
+     * Library defaults.
+     */
+    BALANCED(50, false),
+    /**
+     * Large buffer that rides out long delay spikes at the cost of latency.
+     */
+    RESILIENT(200, false);
+
+    // Upper bound of the jitter buffer, in packets (20 ms each with Opus).
+    public final int audioJitterBufferMaxPackets;
+    // Time-compress audio aggressively to shrink the buffer after a spike.
+    public final boolean audioJitterBufferFastAccelerate;
+
+    LatencyProfile(int audioJitterBufferMaxPackets, boolean audioJitterBufferFastAccelerate) {
+        this.audioJitterBufferMaxPackets = audioJitterBufferMaxPackets;
+        this.audioJitterBufferFastAccelerate = audioJitterBufferFastAccelerate;
+    }
+
+    /**
+     * Writes the profile's settings into |config|.
+     */
+    public void apply(PeerConnection.RTCConfiguration config) {
+        config.audioJitterBufferMaxPackets = audioJitterBufferMaxPackets;
+        config.audioJitterBufferFastAccelerate = audioJitterBufferFastAccelerate;
+    }
+}
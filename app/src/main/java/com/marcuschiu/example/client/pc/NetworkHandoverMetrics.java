@@ -0,0 +1,36 @@
+package com.marcuschiu.example.client.pc;
+
+/**
+ * What one default-network change cost the call, as measured by
+ * {@link NetworkHandoverMonitor}.
+ */
+public class NetworkHandoverMetrics {
+    // Transport of the default network before and after, e.g. "wifi",
+    // "cellular", or "none" while there was no default network.
+    public final String fromNetwork;
+    public final String toNetwork;
+    // From the network change until remote video was flowing steadily again.
+    public final long durationMs;
+    // Longest gap between two remote video frames around the change.
+    public final long mediaGapMs;
+    // Remote frames missing compared to the frame rate before the change.
+    public final int framesLost;
+    // Whether the media stall triggered an ICE restart.
+    public final boolean iceRestarted;
+
+    NetworkHandoverMetrics(String fromNetwork, String toNetwork, long durationMs, long mediaGapMs,
+                           int framesLost, boolean iceRestarted) {
+        this.fromNetwork = fromNetwork;
+        this.toNetwork = toNetwork;
+        this.durationMs = durationMs;
+        this.mediaGapMs = mediaGapMs;
+        this.framesLost = framesLost;
+        this.iceRestarted = iceRestarted;
+    }
+
+    @Override
+    public String toString() {
+        return fromNetwork + " -> " + toNetwork + ": " + durationMs + " ms, media gap " + mediaGapMs + " ms, "
+                + framesLost + " frames lost" + (iceRestarted ? ", ICE restarted" : "");
+    }
+}
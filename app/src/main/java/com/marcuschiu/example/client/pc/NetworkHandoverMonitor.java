@@ -0,0 +1,251 @@
+package com.marcuschiu.example.client.pc;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.StatsReport;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows default-network changes (Wi-Fi to cellular and back) during a call
+ * and measures each handover: the longest gap between remote video frames and
+ * the frames missing compared to the rate before the change.
+ *
+ * <p>The connection itself moves over through continual gathering (see
+ * {@link #configure}): candidates on the new network are gathered and
+ * trickled as soon as it comes up, and backup pairs are pinged often enough
+ * to be switched to without new checks. If remote video still has not
+ * resumed shortly after the new network is available, the owner is asked to
+ * restart ICE.
+ *
+ * <p>Network callbacks are moved to the peer connection executor; onFrame
+ * runs on the decoder thread and only writes two volatile fields.
+ */
+class NetworkHandoverMonitor extends ConnectivityManager.NetworkCallback implements StatsCollector.Listener, VideoSink {
+    private static final String TAG = "NetworkHandover";
+    // Drop a not-receiving pair after 1 s instead of 2.5 s.
+    private static final int ICE_CONNECTION_RECEIVING_TIMEOUT_MS = 1000;
+    // Keep the pairs on the other network verified; the default is 25 s.
+    private static final int ICE_BACKUP_CANDIDATE_PAIR_PING_INTERVAL_MS = 2000;
+    // No remote frame this long after the new network came up means the
+    // connection did not move over by itself.
+    private static final long MEDIA_STALL_TIMEOUT_MS = 2000;
+    // A handover ends once the frame rate is back to this share of the rate
+    // before it, or after HANDOVER_TIMEOUT_MS.
+    private static final double RECOVERED_FPS_RATIO = 0.5;
+    private static final long HANDOVER_TIMEOUT_MS = 15000;
+    private static final String NO_NETWORK = "none";
+
+    interface Callbacks {
+        /**
+         * Remote video has not resumed after a network change. Returns whether
+         * an ICE restart offer was sent.
+         */
+        boolean onMediaStalled();
+
+        void onHandoverComplete(NetworkHandoverMetrics metrics);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final ScheduledExecutorService executor;
+    private final Callbacks callbacks;
+
+    // Written on the decoder thread.
+    private volatile long lastFrameNs;
+    private volatile long maxFrameGapNs;
+    // Non-zero while a handover is measured.
+    private volatile long handoverStartNs;
+
+    // Executor thread only.
+    private boolean started;
+    private boolean initialNetworkReported;
+    private Network currentNetwork;
+    private String currentTransport = NO_NETWORK;
+    private String fromTransport;
+    private long lastSampleNs;
+    private double steadyFps = Double.NaN;
+    private double framesExpected;
+    private double framesDecoded;
+    private int handoverSamples;
+    // Set once per handover, whether or not the stall led to a restart.
+    private boolean stallReported;
+    private boolean restartRequested;
+    private ScheduledFuture<?> stallCheck;
+
+    NetworkHandoverMonitor(Context context, ScheduledExecutorService executor, Callbacks callbacks) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.executor = executor;
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Sets up |config| so the connection can move between networks without
+     * an ICE restart.
+     */
+    static void configure(PeerConnection.RTCConfiguration config) {
+        config.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
+        config.iceConnectionReceivingTimeout = ICE_CONNECTION_RECEIVING_TIMEOUT_MS;
+        config.iceBackupCandidatePairPingInterval = ICE_BACKUP_CANDIDATE_PAIR_PING_INTERVAL_MS;
+    }
+
+    void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        connectivityManager.registerDefaultNetworkCallback(this);
+    }
+
+    void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        connectivityManager.unregisterNetworkCallback(this);
+        cancelStallCheck();
+        handoverStartNs = 0;
+    }
+
+    @Override
+    public void onAvailable(final Network network) {
+        final String transport = describe(network);
+        executor.execute(() -> {
+            if (!started || network.equals(currentNetwork)) {
+                return;
+            }
+            if (!initialNetworkReported) {
+                // The default network at registration, not a change.
+                initialNetworkReported = true;
+                currentNetwork = network;
+                currentTransport = transport;
+                return;
+            }
+            Log.d(TAG, "Default network " + currentTransport + " -> " + transport);
+            beginHandover();
+            currentNetwork = network;
+            currentTransport = transport;
+            // Give continual gathering a moment to move the connection over.
+            cancelStallCheck();
+            final long availableNs = System.nanoTime();
+            stallCheck = executor.schedule(() -> {
+                stallCheck = null;
+                if (handoverStartNs != 0 && lastFrameNs < availableNs && steadyFps > 0 && !stallReported) {
+                    Log.d(TAG, "No remote video " + MEDIA_STALL_TIMEOUT_MS + " ms after switching to " + currentTransport);
+                    stallReported = true;
+                    restartRequested = callbacks.onMediaStalled();
+                }
+            }, MEDIA_STALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    @Override
+    public void onLost(final Network network) {
+        executor.execute(() -> {
+            if (!started || !network.equals(currentNetwork)) {
+                return;
+            }
+            Log.d(TAG, "Default network " + currentTransport + " lost");
+            beginHandover();
+            currentNetwork = null;
+            currentTransport = NO_NETWORK;
+        });
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        final long nowNs = System.nanoTime();
+        final long lastNs = lastFrameNs;
+        lastFrameNs = nowNs;
+        // The gap is counted from the last frame before the change, since
+        // media usually stops before the network is reported gone.
+        if (handoverStartNs != 0 && lastNs != 0 && nowNs - lastNs > maxFrameGapNs) {
+            maxFrameGapNs = nowNs - lastNs;
+        }
+    }
+
+    @Override
+    public void onStatsSample(StatsCollector stats, StatsReport[] reports) {
+        final long nowNs = System.nanoTime();
+        final double seconds = lastSampleNs == 0 ? 0 : (nowNs - lastSampleNs) / 1e9;
+        lastSampleNs = nowNs;
+        final double fps = stats.getLatest(StatsCollector.Metric.FRAMES_DECODED_PER_SECOND);
+        if (handoverStartNs == 0) {
+            if (!Double.isNaN(fps)) {
+                steadyFps = fps;
+            }
+            return;
+        }
+
+        if (steadyFps > 0) {
+            framesExpected += steadyFps * seconds;
+            framesDecoded += Double.isNaN(fps) ? 0 : fps * seconds;
+        }
+        handoverSamples++;
+        final long elapsedMs = (nowNs - handoverStartNs) / 1000000;
+        // The first sample's rates mostly predate the change.
+        final boolean recovered = currentNetwork != null && handoverSamples >= 2
+                && (!(steadyFps > 0) || (lastFrameNs > handoverStartNs && fps >= steadyFps * RECOVERED_FPS_RATIO));
+        if (recovered || elapsedMs >= HANDOVER_TIMEOUT_MS) {
+            endHandover(nowNs, elapsedMs);
+        }
+    }
+
+    private void beginHandover() {
+        if (handoverStartNs != 0) {
+            // Still measuring the previous change; treat both as one.
+            return;
+        }
+        fromTransport = currentTransport;
+        framesExpected = 0;
+        framesDecoded = 0;
+        handoverSamples = 0;
+        stallReported = false;
+        restartRequested = false;
+        maxFrameGapNs = 0;
+        handoverStartNs = System.nanoTime();
+    }
+
+    private void endHandover(long nowNs, long elapsedMs) {
+        cancelStallCheck();
+        // Media that never resumed is a gap up to now.
+        final long gapNs = Math.max(maxFrameGapNs, lastFrameNs < handoverStartNs ? nowNs - lastFrameNs : 0);
+        final NetworkHandoverMetrics metrics = new NetworkHandoverMetrics(fromTransport, currentTransport, elapsedMs,
+                lastFrameNs == 0 ? 0 : gapNs / 1000000, (int) Math.max(0, Math.round(framesExpected - framesDecoded)),
+                restartRequested);
+        handoverStartNs = 0;
+        Log.d(TAG, "Handover " + metrics);
+        callbacks.onHandoverComplete(metrics);
+    }
+
+    private void cancelStallCheck() {
+        if (stallCheck != null) {
+            stallCheck.cancel(false);
+            stallCheck = null;
+        }
+    }
+
+    private String describe(Network network) {
+        NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+        if (capabilities == null) {
+            return "unknown";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) {
+            return "vpn";
+        }
+        return "other";
+    }
+}
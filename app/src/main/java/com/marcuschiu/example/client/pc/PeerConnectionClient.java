@@ -4,14 +4,14 @@ import android.content.Context;
 import android.util.Log;
 
 import com.marcuschiu.example.client.AppRTCClient;
-import com.marcuschiu.example.client.util.Util;
+import com.marcuschiu.example.client.sdp.SdpPipeline;
+import com.marcuschiu.example.client.sdp.SdpPolicy;
+import com.marcuschiu.example.client.util.CallStartupTimeline;
 
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.CameraVideoCapturer;
 import org.webrtc.DataChannel;
-import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.MediaConstraints;
@@ -25,22 +25,24 @@ import org.webrtc.RtpSender;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoRenderer;
 import org.webrtc.VideoSink;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
-import org.webrtc.voiceengine.WebRtcAudioManager;
 import org.webrtc.voiceengine.WebRtcAudioRecord;
 import org.webrtc.voiceengine.WebRtcAudioRecord.AudioRecordStartErrorCode;
 import org.webrtc.voiceengine.WebRtcAudioRecord.WebRtcAudioRecordErrorCallback;
 import org.webrtc.voiceengine.WebRtcAudioTrack;
 import org.webrtc.voiceengine.WebRtcAudioTrack.AudioTrackStartErrorCode;
-import org.webrtc.voiceengine.WebRtcAudioUtils;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class PeerConnectionClient {
 
@@ -49,32 +51,47 @@ public class PeerConnectionClient {
     public static final String VIDEO_TRACK_ID = "ARDAMSv0";
     public static final String AUDIO_TRACK_ID = "ARDAMSa0";
     public static final String VIDEO_TRACK_TYPE = "video";
-    public static final String VIDEO_CODEC_VP8 = "VP8";
-    public static final String AUDIO_CODEC_OPUS = "opus";
-    private static final String VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL = "WebRTC-IntelVP8/Enabled/";
-    private static final String VIDEO_FRAME_EMIT_FIELDTRIAL = PeerConnectionFactory.VIDEO_FRAME_EMIT_TRIAL + "/" + PeerConnectionFactory.TRIAL_ENABLED + "/";
     private static final String AUDIO_LEVEL_CONTROL_CONSTRAINT = "levelControl";
     private static final int HD_VIDEO_WIDTH = 1280;
     private static final int HD_VIDEO_HEIGHT = 720;
-    private static final int FRAMES_PER_SECOND = 720;
+    private static final int FRAMES_PER_SECOND = 30;
     private static final int BPS_IN_KBPS = 1000;
-
-    // Executor thread is started once in private ctor and is used for all
-    // peer connection API calls to ensure new peer connection factory is
-    // created on the same thread as previously destroyed factory.
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Initial caps of the 180p/360p/720p simulcast layers; fewer layers take
+    // the top entries.
+    private static final int[] SIMULCAST_LAYER_MAX_KBPS = {150, 500, 1500};
+    private static final String ICE_RESTART_CONSTRAINT = "IceRestart";
+    // A DISCONNECTED connection often recovers by itself; give it this long
+    // before restarting ICE. FAILED restarts right away.
+    private static final long ICE_RESTART_DELAY_MS = 1000;
+    // A restart that has not connected after this long is retried.
+    private static final long ICE_RESTART_TIMEOUT_MS = 5000;
+    private static final int MAX_ICE_RESTART_ATTEMPTS = 3;
+    // Under the app's cache directory.
+    private static final String FILE_TRANSFER_DIRECTORY = "transfers";
+
+    // The engine's executor is used for all peer connection API calls to
+    // ensure the shared factory is only used on the thread that created it.
+    private static final ScheduledExecutorService executor = PeerConnectionEngine.getExecutor();
 
     private final SDPObserver sdpObserver = new SDPObserver();
 
+    private final PeerConnectionParameters parameters;
+    // Replaced with the probed codec ranking, if enabled, when the factory is
+    // created. Only touched on the executor thread.
+    private SdpPipeline localSdpPipeline;
+    private SdpPipeline remoteSdpPipeline;
+
+    private final PeerConnectionEngine engine = PeerConnectionEngine.getInstance();
     private final EglBase rootEglBase;
     private PeerConnectionFactory pcFactory = null;
     private PeerConnection pc = null;
+    private PeerConnection.RTCConfiguration rtcConfig;
 
     private PeerConnectionEvents events;
     private boolean isError = false;
     private boolean isInitiator;
 
-    private VideoRenderer.Callbacks remoteVideo;
+    private VideoSink remoteVideo;
     private MediaConstraints sdpMediaConstraints;
     // Queued remote ICE candidates are consumed only after both local and
     // remote descriptions are set. Similarly local ICE candidates are sent to
@@ -88,25 +105,53 @@ public class PeerConnectionClient {
     private RtpSender localVideoSender;
     private AudioSource audioSource;
     private VideoSource videoSource;
+    private MediaStream localMediaStream;
+    private StatsCollector statsCollector;
+    private AdaptiveCaptureController captureController;
+    private NetworkHandoverMonitor handoverMonitor;
+    private FileTransferChannel fileTransferChannel;
+    private FileTransfer.Listener fileTransferListener;
+    private final UnreliableChannel unreliableChannel;
+    private Context appContext;
+    // Per-profile setup measurements, logged when ICE first connects.
+    private long pcCreatedAtMs;
+    private int localCandidateCount;
+    private final Set<String> localCandidateMids = new HashSet<>();
+    // Source caps last applied by setVideoSenderParameters.
+    private int senderMaxFramerate = FRAMES_PER_SECOND;
+    private double senderScaleResolutionDownBy = 1.0;
+    private boolean simulcastConfigured;
+    // ICE restart state. iceDisconnectedAtMs is -1 while connected.
+    private boolean iceConnectedOnce;
+    private long iceDisconnectedAtMs = -1;
+    private int iceRestartAttempts;
+    private boolean iceRestartPending;
+    private ScheduledFuture<?> iceRestartTimer;
+    private CallStartupTimeline timeline = new CallStartupTimeline();
+
+    public PeerConnectionClient(PeerConnectionParameters parameters) {
+        this.parameters = parameters;
+        localSdpPipeline = parameters.sdpPolicy.createLocalPipeline();
+        remoteSdpPipeline = parameters.sdpPolicy.createRemotePipeline();
+        unreliableChannel = parameters.unreliableMessaging ? new UnreliableChannel() : null;
+        rootEglBase = engine.acquire();
+    }
 
-    public PeerConnectionClient() {
-        rootEglBase = EglBase.create();
+    /**
+     * Records setup stages into |timeline|. Call before
+     * createPeerConnectionFactory().
+     */
+    public void setStartupTimeline(CallStartupTimeline timeline) {
+        this.timeline = timeline;
     }
 
     public void createPeerConnectionFactory(final Context context, final PeerConnectionEvents events) {
         this.events = events;
+        this.appContext = context.getApplicationContext();
 
         executor.execute(() -> {
-            PeerConnectionFactory.InitializationOptions options = PeerConnectionFactory.InitializationOptions.builder(context)
-                    .setFieldTrials(VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL + VIDEO_FRAME_EMIT_FIELDTRIAL)
-                    .createInitializationOptions();
-            PeerConnectionFactory.initialize(options);
-
-            WebRtcAudioManager.setBlacklistDeviceForOpenSLESUsage(true);
-            WebRtcAudioUtils.setWebRtcBasedAcousticEchoCanceler(true);
-            WebRtcAudioUtils.setWebRtcBasedAutomaticGainControl(true);
-            WebRtcAudioUtils.setWebRtcBasedNoiseSuppressor(true);
-
+            timeline.begin("create factory");
+            // The audio error callbacks are process-wide; point them at this call.
             WebRtcAudioRecord.setErrorCallback(new WebRtcAudioRecordErrorCallback() {
                 @Override
                 public void onWebRtcAudioRecordInitError(String errorMessage) {
@@ -146,21 +191,76 @@ public class PeerConnectionClient {
                 }
             });
 
-            pcFactory = new PeerConnectionFactory(null,
-                    new DefaultVideoEncoderFactory(rootEglBase.getEglBaseContext(), true, false),
-                    new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext()));
-//            PeerConnectionFactory.builder()
-//                    .setVideoEncoderFactory(new DefaultVideoEncoderFactory(rootEglBase.getEglBaseContext(), true, false))
-//                    .setVideoDecoderFactory(new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext()))
-//                    .createPeerConnectionFactory();
+            boolean enableH264HighProfile = false;
+            // Never waits for the probe: until it has finished, this call
+            // keeps the policy's own codec order.
+            VideoCodecProbe.Capabilities capabilities =
+                    parameters.preferProbedVideoCodecs ? VideoCodecProbe.peekCapabilities(context) : null;
+            if (capabilities != null) {
+                enableH264HighProfile = capabilities.h264HighProfileSupported;
+                SdpPolicy sdpPolicy = parameters.sdpPolicy.toBuilder()
+                        .setVideoCodecs(capabilities.codecRanking)
+                        .createSdpPolicy();
+                localSdpPipeline = sdpPolicy.createLocalPipeline();
+                remoteSdpPipeline = sdpPolicy.createRemotePipeline();
+            }
+
+            pcFactory = engine.getFactory(context, enableH264HighProfile);
+            timeline.end("create factory");
         });
     }
 
-    public void createPeerConnection(final VideoSink localVideo, final VideoRenderer.Callbacks remoteVideo, final VideoCapturer videoCapturer, final List<PeerConnection.IceServer> iceServers) {
-        this.remoteVideo = remoteVideo;
+    /**
+     * Creates the local audio and video tracks and starts capturing, without
+     * waiting for the room join. Runs right after the factory is created.
+     */
+    public void createLocalMedia(final VideoSink localVideo, final VideoCapturer videoCapturer) {
         this.videoCapturer = videoCapturer;
         executor.execute(() -> {
+            if (pcFactory == null || isError) {
+                return;
+            }
+            try {
+                timeline.begin("create local media");
+                localMediaStream = pcFactory.createLocalMediaStream("ARDAMS");
+
+                if (videoCapturer != null) {
+                    videoSource = pcFactory.createVideoSource(videoCapturer);
+                    timeline.begin("start capture");
+                    videoCapturer.startCapture(HD_VIDEO_WIDTH, HD_VIDEO_HEIGHT, FRAMES_PER_SECOND);
+                    timeline.end("start capture");
+                    VideoTrack localVideoTrack = pcFactory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
+                    localVideoTrack.setEnabled(true);
+                    localVideoTrack.addSink(localVideo);
+                    localMediaStream.addTrack(localVideoTrack);
+                }
+
+                MediaConstraints audioConstraints = new MediaConstraints();
+                audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair(AUDIO_LEVEL_CONTROL_CONSTRAINT, "true"));
+                audioSource = pcFactory.createAudioSource(audioConstraints);
+                AudioTrack localAudioTrack = pcFactory.createAudioTrack(AUDIO_TRACK_ID, audioSource);
+                localAudioTrack.setEnabled(true);
+                localMediaStream.addTrack(localAudioTrack);
+                timeline.end("create local media");
+            } catch (Exception e) {
+                reportError("Failed to create local media: " + e.getMessage());
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Creates the peer connection once the ICE servers are known and adds the
+     * local media created by {@link #createLocalMedia}.
+     */
+    public void createPeerConnection(final VideoSink remoteVideo, final List<PeerConnection.IceServer> iceServers) {
+        this.remoteVideo = remoteVideo;
+        executor.execute(() -> {
+            if (pcFactory == null || isError) {
+                return;
+            }
             try {
+                timeline.begin("create peer connection");
                 ///////////////////////////
                 // CREATE SDP CONSTRAINT //
                 ///////////////////////////
@@ -173,26 +273,43 @@ public class PeerConnectionClient {
                 ////////////////////////////
                 queuedRemoteCandidates = new ArrayList<>();
 
-                pcFactory.setVideoHwAccelerationOptions(rootEglBase.getEglBaseContext(), rootEglBase.getEglBaseContext());
-                pc = pcFactory.createPeerConnection(new PeerConnection.RTCConfiguration(iceServers), new PCObserver());
-
-                MediaStream mediaStream = pcFactory.createLocalMediaStream("ARDAMS");
-
-                videoSource = pcFactory.createVideoSource(videoCapturer);
-                videoCapturer.startCapture(HD_VIDEO_WIDTH, HD_VIDEO_HEIGHT, FRAMES_PER_SECOND);
-                VideoTrack localVideoTrack = pcFactory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
-                localVideoTrack.setEnabled(true);
-                localVideoTrack.addSink(localVideo);
-                mediaStream.addTrack(localVideoTrack);
-
-                MediaConstraints audioConstraints = new MediaConstraints();
-                audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair(AUDIO_LEVEL_CONTROL_CONSTRAINT, "true"));
-                audioSource = pcFactory.createAudioSource(audioConstraints);
-                AudioTrack localAudioTrack = pcFactory.createAudioTrack(AUDIO_TRACK_ID, audioSource);
-                localAudioTrack.setEnabled(true);
-                mediaStream.addTrack(localAudioTrack);
+                rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+                parameters.transportProfile.apply(rtcConfig);
+                parameters.latencyProfile.apply(rtcConfig);
+                if (parameters.networkHandover) {
+                    NetworkHandoverMonitor.configure(rtcConfig);
+                }
+                pc = pcFactory.createPeerConnection(rtcConfig, new PCObserver());
+                pcCreatedAtMs = System.currentTimeMillis();
 
-                pc.addStream(mediaStream);
+                if (localMediaStream != null) {
+                    pc.addStream(localMediaStream);
+                }
+                if (parameters.fileTransfer) {
+                    // Created before the offer/answer so the SDP carries the
+                    // SCTP association; the remote side's channel arrives in
+                    // onDataChannel.
+                    fileTransferChannel = new FileTransferChannel(executor,
+                            new File(appContext.getCacheDir(), FILE_TRANSFER_DIRECTORY), new FileTransferEvents());
+                    fileTransferChannel.setSendChannel(
+                            pc.createDataChannel(FileTransferChannel.LABEL, FileTransferChannel.createInit()));
+                }
+                if (unreliableChannel != null) {
+                    unreliableChannel.attach(
+                            pc.createDataChannel(UnreliableChannel.LABEL, UnreliableChannel.createInit()));
+                }
+                statsCollector = new StatsCollector(executor, pc, parameters.statsIntervalMs);
+                statsCollector.addListener((stats, reports) -> events.onPeerConnectionStatsReady(reports));
+                if (parameters.adaptiveCapture && videoCapturer != null) {
+                    captureController = new AdaptiveCaptureController(videoCapturer, videoSource);
+                    statsCollector.addListener(captureController);
+                }
+                if (parameters.networkHandover) {
+                    handoverMonitor = new NetworkHandoverMonitor(appContext, executor,
+                            new HandoverCallbacks());
+                    statsCollector.addListener(handoverMonitor);
+                    handoverMonitor.start();
+                }
                 for (RtpSender sender : pc.getSenders()) {
                     if (sender.track() != null) {
                         String trackType = sender.track().kind();
@@ -201,6 +318,7 @@ public class PeerConnectionClient {
                         }
                     }
                 }
+                timeline.end("create peer connection");
             } catch (Exception e) {
                 reportError("Failed to create peer connection: " + e.getMessage());
                 throw e;
@@ -208,12 +326,100 @@ public class PeerConnectionClient {
         });
     }
 
+    /**
+     * Adds a listener for the periodic stats samples of the current call.
+     * Listeners run on the peer connection executor.
+     */
+    public void addStatsListener(final StatsCollector.Listener listener) {
+        executor.execute(() -> {
+            if (statsCollector != null) {
+                statsCollector.addListener(listener);
+            }
+        });
+    }
+
+    /**
+     * Sets the listener for file transfers in both directions. Listener
+     * methods run on the peer connection executor.
+     */
+    public void setFileTransferListener(final FileTransfer.Listener listener) {
+        executor.execute(() -> fileTransferListener = listener);
+    }
+
+    /**
+     * Queues |file| for sending over the file transfer data channel. Requires
+     * PeerConnectionParameters.fileTransfer.
+     */
+    public void sendFile(final File file) {
+        executor.execute(() -> {
+            if (fileTransferChannel == null) {
+                Log.w(TAG, "File transfer is not enabled, dropping " + file);
+                return;
+            }
+            fileTransferChannel.sendFile(file);
+        });
+    }
+
+    /**
+     * Queues the remaining bytes of |data| for sending under |name|. The
+     * buffer must not be modified until the transfer has completed or failed.
+     */
+    public void sendBlob(final String name, final ByteBuffer data) {
+        executor.execute(() -> {
+            if (fileTransferChannel == null) {
+                Log.w(TAG, "File transfer is not enabled, dropping " + name);
+                return;
+            }
+            fileTransferChannel.sendBlob(name, data);
+        });
+    }
+
+    /**
+     * Returns the channel for small unreliable messages, which exists for the
+     * lifetime of this client and opens with the peer connection; null unless
+     * PeerConnectionParameters.unreliableMessaging is set.
+     */
+    public UnreliableChannel getUnreliableChannel() {
+        return unreliableChannel;
+    }
+
     public void close() {
         executor.execute(() -> {
+            cancelIceRestart();
+            if (remoteVideoTrack != null) {
+                remoteVideoTrack.removeSink(remoteVideo);
+                if (handoverMonitor != null) {
+                    remoteVideoTrack.removeSink(handoverMonitor);
+                }
+                remoteVideoTrack = null;
+            }
+            if (unreliableChannel != null) {
+                unreliableChannel.detach();
+            }
+            if (fileTransferChannel != null) {
+                fileTransferChannel.close();
+                fileTransferChannel = null;
+            }
+            if (handoverMonitor != null) {
+                handoverMonitor.stop();
+                handoverMonitor = null;
+            }
+            if (statsCollector != null) {
+                statsCollector.stop();
+                if (statsCollector.getSampleCount() > 0) {
+                    Log.d(TAG, "Call stats: " + statsCollector.summary());
+                }
+                statsCollector = null;
+            }
+            captureController = null;
             if (pc != null) {
+                // Also disposes the local stream added to it.
                 pc.dispose();
                 pc = null;
+            } else if (localMediaStream != null) {
+                localMediaStream.dispose();
             }
+            localMediaStream = null;
             if (audioSource != null) {
                 audioSource.dispose();
                 audioSource = null;
@@ -233,14 +439,10 @@ public class PeerConnectionClient {
                 videoSource = null;
             }
             remoteVideo = null;
-            if (pcFactory != null) {
-                pcFactory.dispose();
-                pcFactory = null;
-            }
-            rootEglBase.release();
+            // The factory and EGL context stay warm in the engine for the next call.
+            pcFactory = null;
+            engine.release();
             events.onPeerConnectionClosed();
-            PeerConnectionFactory.stopInternalTracingCapture();
-            PeerConnectionFactory.shutdownInternalTracer();
             events = null;
         });
     }
@@ -253,6 +455,7 @@ public class PeerConnectionClient {
         executor.execute(() -> {
             if (pc != null && !isError) {
                 isInitiator = true;
+                timeline.begin("create offer");
                 pc.createOffer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -262,6 +465,7 @@ public class PeerConnectionClient {
         executor.execute(() -> {
             if (pc != null && !isError) {
                 isInitiator = false;
+                timeline.begin("create answer");
                 pc.createAnswer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -292,9 +496,7 @@ public class PeerConnectionClient {
 
     public void setRemoteDescription(final SessionDescription sdp) {
         executor.execute(() -> {
-            String sdpDescription = sdp.description;
-            sdpDescription = Util.preferCodec(sdpDescription);
-            sdpDescription = Util.setStartBitrate(sdpDescription);
+            String sdpDescription = remoteSdpPipeline.apply(sdp.description);
             pc.setRemoteDescription(sdpObserver, new SessionDescription(sdp.type, sdpDescription));
         });
     }
@@ -314,12 +516,194 @@ public class PeerConnectionClient {
     public void startVideoSource() {
         executor.execute(() -> {
             if (videoCapturer != null && videoCapturerStopped) {
-                videoCapturer.startCapture(HD_VIDEO_WIDTH, HD_VIDEO_HEIGHT, FRAMES_PER_SECOND);
+                if (captureController != null) {
+                    // Resume at the format the controller last settled on.
+                    AdaptiveCaptureController.CaptureFormat format = captureController.getCurrentFormat();
+                    videoCapturer.startCapture(format.width, format.height, format.fps);
+                } else {
+                    videoCapturer.startCapture(HD_VIDEO_WIDTH, HD_VIDEO_HEIGHT, FRAMES_PER_SECOND);
+                }
                 videoCapturerStopped = false;
             }
         });
     }
 
+    /**
+     * Caps the local video sender at runtime, without renegotiation. The
+     * bitrate and active flags go to the sender's encodings through
+     * RtpSender.setParameters; this WebRTC version has no per-encoding
+     * framerate or scale, so those adapt the video source output instead,
+     * relative to the current capture format. With adaptive capture they are
+     * handed to the AdaptiveCaptureController as a ceiling on its ladder.
+     * Since they act on the source, with simulcast they apply to every layer.
+     * The parameters actually in effect are reported to |callback| on the
+     * peer connection executor.
+     */
+    public void setVideoSenderParameters(final VideoSenderParameters parameters,
+                                         final VideoSenderParameters.Callback callback) {
+        executor.execute(() -> {
+            if (pc == null || localVideoSender == null || isError) {
+                callback.onFailure("No local video sender");
+                return;
+            }
+            RtpParameters rtpParameters = localVideoSender.getParameters();
+            if (rtpParameters.encodings.isEmpty()) {
+                callback.onFailure("Local video sender has no encodings");
+                return;
+            }
+            final int encodings = rtpParameters.encodings.size();
+            if (parameters.activeEncodings != null && parameters.activeEncodings.length != encodings) {
+                callback.onFailure("Expected " + encodings + " active flags, got "
+                        + parameters.activeEncodings.length);
+                return;
+            }
+            if (parameters.encodingMaxBitratesKbps != null && parameters.encodingMaxBitratesKbps.length != encodings) {
+                callback.onFailure("Expected " + encodings + " encoding bitrates, got "
+                        + parameters.encodingMaxBitratesKbps.length);
+                return;
+            }
+            if (parameters.maxBitrateKbps != null || parameters.encodingMaxBitratesKbps != null
+                    || parameters.activeEncodings != null) {
+                for (int i = 0; i < encodings; i++) {
+                    RtpParameters.Encoding encoding = rtpParameters.encodings.get(i);
+                    Integer maxBitrateKbps = parameters.encodingMaxBitratesKbps != null
+                            ? Integer.valueOf(parameters.encodingMaxBitratesKbps[i]) : parameters.maxBitrateKbps;
+                    if (maxBitrateKbps != null) {
+                        // Null means unlimited.
+                        encoding.maxBitrateBps = maxBitrateKbps == 0 ? null : maxBitrateKbps * BPS_IN_KBPS;
+                    }
+                    if (parameters.activeEncodings != null) {
+                        encoding.active = parameters.activeEncodings[i];
+                    }
+                }
+                if (!localVideoSender.setParameters(rtpParameters)) {
+                    callback.onFailure("RtpSender.setParameters failed");
+                    return;
+                }
+            }
+            if ((parameters.maxFramerate != null || parameters.scaleResolutionDownBy != null) && videoSource != null) {
+                if (parameters.maxFramerate != null) {
+                    senderMaxFramerate = parameters.maxFramerate;
+                }
+                if (parameters.scaleResolutionDownBy != null) {
+                    senderScaleResolutionDownBy = parameters.scaleResolutionDownBy;
+                }
+                if (captureController != null) {
+                    captureController.setSenderCaps(senderMaxFramerate, senderScaleResolutionDownBy);
+                } else {
+                    videoSource.adaptOutputFormat((int) (HD_VIDEO_WIDTH / senderScaleResolutionDownBy),
+                            (int) (HD_VIDEO_HEIGHT / senderScaleResolutionDownBy),
+                            Math.min(FRAMES_PER_SECOND, senderMaxFramerate));
+                }
+            }
+            callback.onApplied(readVideoSenderParameters());
+        });
+    }
+
+    private VideoSenderParameters readVideoSenderParameters() {
+        List<RtpParameters.Encoding> encodings = localVideoSender.getParameters().encodings;
+        boolean[] active = new boolean[encodings.size()];
+        int[] maxBitratesKbps = new int[encodings.size()];
+        int maxBitrateKbps = 0;
+        for (int i = 0; i < encodings.size(); i++) {
+            RtpParameters.Encoding encoding = encodings.get(i);
+            active[i] = encoding.active;
+            if (encoding.maxBitrateBps != null) {
+                maxBitratesKbps[i] = encoding.maxBitrateBps / BPS_IN_KBPS;
+                maxBitrateKbps = Math.max(maxBitrateKbps, maxBitratesKbps[i]);
+            }
+        }
+        VideoSenderParameters applied = VideoSenderParameters.builder()
+                .setMaxBitrateKbps(maxBitrateKbps)
+                .setEncodingMaxBitratesKbps(maxBitratesKbps)
+                .setMaxFramerate(senderMaxFramerate)
+                .setScaleResolutionDownBy(senderScaleResolutionDownBy)
+                .setActiveEncodings(active)
+                .createVideoSenderParameters();
+        Log.d(TAG, "Video sender parameters: " + applied);
+        return applied;
+    }
+
+    // Caps the simulcast layers once the munged local description has given the
+    // sender one encoding per layer.
+    private void configureSimulcastLayers() {
+        if (simulcastConfigured || localVideoSender == null) {
+            return;
+        }
+        RtpParameters rtpParameters = localVideoSender.getParameters();
+        final int layers = rtpParameters.encodings.size();
+        if (layers < 2) {
+            return;
+        }
+        simulcastConfigured = true;
+        for (int i = 0; i < layers; i++) {
+            final int kbps = SIMULCAST_LAYER_MAX_KBPS[Math.max(0, SIMULCAST_LAYER_MAX_KBPS.length - layers + i)];
+            rtpParameters.encodings.get(i).maxBitrateBps = kbps * BPS_IN_KBPS;
+        }
+        if (!localVideoSender.setParameters(rtpParameters)) {
+            Log.w(TAG, "Failed to cap " + layers + " simulcast layers");
+            return;
+        }
+        Log.d(TAG, "Sending " + layers + " simulcast layers: " + readVideoSenderParameters());
+    }
+
+    // Restarts ICE after |delayMs| unless the connection recovers first. Only
+    // the initiator restarts, so both sides never send restart offers at once;
+    // the other side answers the offer like any other.
+    private void scheduleIceRestart(long delayMs) {
+        if (!parameters.iceRestart || !isInitiator) {
+            return;
+        }
+        cancelIceRestart();
+        iceRestartTimer = executor.schedule(() -> {
+            iceRestartTimer = null;
+            restartIce();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelIceRestart() {
+        iceRestartPending = false;
+        if (iceRestartTimer != null) {
+            iceRestartTimer.cancel(false);
+            iceRestartTimer = null;
+        }
+    }
+
+    private void restartIce() {
+        if (pc == null || isError || iceDisconnectedAtMs < 0) {
+            return;
+        }
+        if (iceRestartAttempts >= MAX_ICE_RESTART_ATTEMPTS) {
+            reportError("ICE connection failed after " + iceRestartAttempts + " restarts.");
+            return;
+        }
+        PeerConnection.SignalingState state = pc.signalingState();
+        if (state != PeerConnection.SignalingState.STABLE && state != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+            // Mid-negotiation; restart once it completes. An unanswered offer
+            // of our own is simply replaced.
+            iceRestartPending = true;
+            return;
+        }
+        iceRestartPending = false;
+        iceRestartAttempts++;
+        Log.d(TAG, "Restarting ICE, attempt " + iceRestartAttempts + ", "
+                + (System.currentTimeMillis() - iceDisconnectedAtMs) + " ms after disconnect");
+        createIceRestartOffer();
+        scheduleIceRestart(ICE_RESTART_TIMEOUT_MS);
+    }
+
+    private void createIceRestartOffer() {
+        MediaConstraints constraints = new MediaConstraints();
+        constraints.mandatory.addAll(sdpMediaConstraints.mandatory);
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair(ICE_RESTART_CONSTRAINT, "true"));
+        // Candidates for the new ICE credentials can only be added once the
+        // answer is set.
+        if (queuedRemoteCandidates == null) {
+            queuedRemoteCandidates = new ArrayList<>();
+        }
+        pc.createOffer(sdpObserver, constraints);
+    }
+
     private void reportError(final String errorMessage) {
         Log.e(TAG, "Peerconnection error: " + errorMessage);
         executor.execute(() -> {
@@ -354,7 +738,11 @@ public class PeerConnectionClient {
     private class PCObserver implements PeerConnection.Observer {
         @Override
         public void onIceCandidate(final IceCandidate candidate) {
-            executor.execute(() -> events.onIceCandidate(candidate));
+            executor.execute(() -> {
+                localCandidateCount++;
+                localCandidateMids.add(candidate.sdpMid);
+                events.onIceCandidate(candidate);
+            });
         }
 
         @Override
@@ -369,18 +757,60 @@ public class PeerConnectionClient {
         @Override
         public void onIceConnectionChange(final IceConnectionState newState) {
             executor.execute(() -> {
+                if (pc == null || isError) {
+                    return;
+                }
                 if (newState == IceConnectionState.CONNECTED) {
-                    events.onIceConnected();
+                    cancelIceRestart();
+                    if (statsCollector != null) {
+                        statsCollector.start();
+                    }
+                    if (captureController != null) {
+                        captureController.setEnabled(true);
+                    }
+                    if (!iceConnectedOnce) {
+                        iceConnectedOnce = true;
+                        timeline.mark("ICE connected");
+                        Log.d(TAG, "Transport profile " + parameters.transportProfile + ": ICE connected "
+                                + (System.currentTimeMillis() - pcCreatedAtMs) + " ms after peer connection creation, "
+                                + localCandidateCount + " local candidates on " + localCandidateMids.size()
+                                + " transports");
+                        events.onIceConnected();
+                    } else if (iceDisconnectedAtMs >= 0) {
+                        long recoveryMs = System.currentTimeMillis() - iceDisconnectedAtMs;
+                        Log.d(TAG, "ICE reconnected in " + recoveryMs + " ms, " + iceRestartAttempts + " restarts");
+                        iceDisconnectedAtMs = -1;
+                        iceRestartAttempts = 0;
+                        events.onIceReconnected(recoveryMs);
+                    }
                 } else if (newState == IceConnectionState.DISCONNECTED) {
-                    events.onIceDisconnected();
+                    if (captureController != null) {
+                        captureController.setEnabled(false);
+                    }
+                    if (iceDisconnectedAtMs < 0) {
+                        iceDisconnectedAtMs = System.currentTimeMillis();
+                        events.onIceDisconnected();
+                    }
+                    scheduleIceRestart(ICE_RESTART_DELAY_MS);
                 } else if (newState == IceConnectionState.FAILED) {
-                    reportError("ICE connection failed.");
+                    if (!parameters.iceRestart) {
+                        reportError("ICE connection failed.");
+                        return;
+                    }
+                    if (iceDisconnectedAtMs < 0) {
+                        iceDisconnectedAtMs = System.currentTimeMillis();
+                        events.onIceDisconnected();
+                    }
+                    scheduleIceRestart(0);
                 }
             });
         }
 
         @Override
         public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
+            if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+                executor.execute(() -> events.onIceGatheringComplete());
+            }
         }
 
         @Override
@@ -397,10 +827,16 @@ public class PeerConnectionClient {
                     reportError("Weird-looking stream: " + stream);
                     return;
                 }
+                timeline.mark("remote stream added");
                 if (stream.videoTracks.size() == 1) {
                     remoteVideoTrack = stream.videoTracks.get(0);
                     remoteVideoTrack.setEnabled(true);
-                    remoteVideoTrack.addRenderer(new VideoRenderer(remoteVideo));
+                    // VideoFrames keep hardware-decoded textures on the GPU
+                    // up to the renderer, unlike the I420Frame path.
+                    remoteVideoTrack.addSink(remoteVideo);
+                    if (handoverMonitor != null) {
+                        remoteVideoTrack.addSink(handoverMonitor);
+                    }
                 }
             });
         }
@@ -412,6 +848,14 @@ public class PeerConnectionClient {
 
         @Override
         public void onDataChannel(final DataChannel dc) {
+            executor.execute(() -> {
+                if (fileTransferChannel != null && FileTransferChannel.LABEL.equals(dc.label())) {
+                    fileTransferChannel.setReceiveChannel(dc);
+                } else {
+                    Log.w(TAG, "Ignoring data channel " + dc.label());
+                    dc.dispose();
+                }
+            });
         }
 
         @Override
@@ -425,29 +869,93 @@ public class PeerConnectionClient {
         }
     }
 
+    private class HandoverCallbacks implements NetworkHandoverMonitor.Callbacks {
+        @Override
+        public boolean onMediaStalled() {
+            // While ICE is disconnected the regular restart flow is already
+            // running. Otherwise the old pair still looks alive but carries
+            // nothing, so move to the new network with a single restart.
+            if (pc == null || isError || iceDisconnectedAtMs >= 0 || !parameters.iceRestart || !isInitiator
+                    || pc.signalingState() != PeerConnection.SignalingState.STABLE) {
+                return false;
+            }
+            Log.d(TAG, "Restarting ICE after network handover");
+            createIceRestartOffer();
+            return true;
+        }
+
+        @Override
+        public void onHandoverComplete(NetworkHandoverMetrics metrics) {
+            if (events != null) {
+                events.onNetworkHandover(metrics);
+            }
+        }
+    }
+
+    // Forwards to the listener set at the time of the event.
+    private class FileTransferEvents implements FileTransfer.Listener {
+        @Override
+        public void onTransferProgress(FileTransfer transfer) {
+            if (fileTransferListener != null) {
+                fileTransferListener.onTransferProgress(transfer);
+            }
+        }
+
+        @Override
+        public void onTransferComplete(FileTransfer transfer) {
+            if (fileTransferListener != null) {
+                fileTransferListener.onTransferComplete(transfer);
+            }
+        }
+
+        @Override
+        public void onTransferFailed(FileTransfer transfer, String error) {
+            if (fileTransferListener != null) {
+                fileTransferListener.onTransferFailed(transfer, error);
+            }
+        }
+    }
+
     private class SDPObserver implements SdpObserver {
         @Override
         public void onCreateSuccess(final SessionDescription origSdp) {
-            localSdp = new SessionDescription(origSdp.type, Util.preferCodec(origSdp.description));
-            executor.execute(() -> pc.setLocalDescription(sdpObserver, localSdp));
+            executor.execute(() -> {
+                timeline.end(origSdp.type == SessionDescription.Type.OFFER ? "create offer" : "create answer");
+                localSdp = new SessionDescription(origSdp.type, localSdpPipeline.apply(origSdp.description));
+                pc.setLocalDescription(sdpObserver, localSdp);
+            });
         }
 
         @Override
         public void onSetSuccess() {
             executor.execute(() -> {
+                if (pc == null || isError) {
+                    return;
+                }
+                // The signaling state tells which description was just set;
+                // checking for an existing description breaks on re-offers
+                // such as ICE restarts.
+                PeerConnection.SignalingState state = pc.signalingState();
                 if (isInitiator) {
                     // For offering peer connection we first create offer and set local SDP, then after receiving answer set remote SDP.
-                    if (pc.getRemoteDescription() == null) {
+                    if (state == PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
                         // We've just set our local SDP so time to send it.
+                        timeline.mark("local offer set");
+                        configureSimulcastLayers();
                         events.onLocalDescription(localSdp);
                     } else {
                         // We've just set remote description, so drain remote and send local ICE candidates.
                         drainCandidates();
+                        if (iceRestartPending) {
+                            restartIce();
+                        }
                     }
                 } else {
                     // For answering peer connection we set remote SDP and then create answer and set local SDP.
-                    if (pc.getLocalDescription() != null) {
+                    if (state == PeerConnection.SignalingState.STABLE) {
                         // We've just set our local SDP so time to send it, drain remote and send local ICE candidates.
+                        timeline.mark("local answer set");
+                        configureSimulcastLayers();
                         events.onLocalDescription(localSdp);
                         drainCandidates();
                     } else {
@@ -0,0 +1,190 @@
+package com.marcuschiu.example.client.pc;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.voiceengine.WebRtcAudioManager;
+import org.webrtc.voiceengine.WebRtcAudioUtils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide holder of the native WebRTC engine: the EGL context, the
+ * PeerConnectionFactory and, owned by the factory, the audio device module.
+ * They are reference counted by the calls using them and kept warm for
+ * {@link #IDLE_TIMEOUT_MS} after the last call ends, so back-to-back calls
+ * skip native initialization. Memory pressure disposes an idle engine early.
+ *
+ * <p>The factory must be created, used and disposed on one thread; that is
+ * the executor returned by {@link #getExecutor()}, which PeerConnectionClient
+ * runs all its work on.
+ */
+public class PeerConnectionEngine {
+    private static final String TAG = "PeerConnectionEngine";
+    private static final String VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL = "WebRTC-IntelVP8/Enabled/";
+    private static final String VIDEO_FRAME_EMIT_FIELDTRIAL = PeerConnectionFactory.VIDEO_FRAME_EMIT_TRIAL + "/" + PeerConnectionFactory.TRIAL_ENABLED + "/";
+    static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "PeerConnectionEngine"));
+    private static final PeerConnectionEngine instance = new PeerConnectionEngine();
+
+    // Guarded by |this|; acquire() runs on the caller's thread.
+    private int refCount;
+    private EglBase eglBase;
+    private ScheduledFuture<?> idleDispose;
+
+    // Only touched on the executor thread.
+    private boolean initialized;
+    private PeerConnectionFactory factory;
+    private boolean factoryH264HighProfile;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) {
+                executor.execute(() -> disposeIfIdle("onTrimMemory(" + level + ")"));
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            executor.execute(() -> disposeIfIdle("onLowMemory"));
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private PeerConnectionEngine() {}
+
+    public static PeerConnectionEngine getInstance() {
+        return instance;
+    }
+
+    public static ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Takes a reference on the engine, cancelling a pending idle dispose, and
+     * returns the shared EGL context. Any thread.
+     */
+    public synchronized EglBase acquire() {
+        refCount++;
+        if (idleDispose != null) {
+            idleDispose.cancel(false);
+            idleDispose = null;
+        }
+        if (eglBase == null) {
+            eglBase = EglBase.create();
+        }
+        return eglBase;
+    }
+
+    /**
+     * Drops a reference taken by acquire(). The engine is disposed once it has
+     * been unused for IDLE_TIMEOUT_MS.
+     */
+    public synchronized void release() {
+        if (refCount == 0) {
+            Log.w(TAG, "release() without acquire()");
+            return;
+        }
+        if (--refCount == 0) {
+            idleDispose = executor.schedule(() -> disposeIfIdle("idle timeout"), IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the shared factory, creating it (and initializing WebRTC on first
+     * use) if needed. Executor thread only, between acquire() and release().
+     */
+    PeerConnectionFactory getFactory(Context context, boolean enableH264HighProfile) {
+        if (!initialized) {
+            long startMs = System.currentTimeMillis();
+            PeerConnectionFactory.InitializationOptions options = PeerConnectionFactory.InitializationOptions.builder(context)
+                    .setFieldTrials(VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL + VIDEO_FRAME_EMIT_FIELDTRIAL)
+                    .createInitializationOptions();
+            PeerConnectionFactory.initialize(options);
+
+            WebRtcAudioManager.setBlacklistDeviceForOpenSLESUsage(true);
+            WebRtcAudioUtils.setWebRtcBasedAcousticEchoCanceler(true);
+            WebRtcAudioUtils.setWebRtcBasedAutomaticGainControl(true);
+            WebRtcAudioUtils.setWebRtcBasedNoiseSuppressor(true);
+
+            context.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+            initialized = true;
+            Log.d(TAG, "Initialized WebRTC in " + (System.currentTimeMillis() - startMs) + " ms");
+        }
+
+        final EglBase.Context eglContext;
+        final int refs;
+        synchronized (this) {
+            eglContext = eglBase.getEglBaseContext();
+            refs = refCount;
+        }
+        if (factory != null && factoryH264HighProfile != enableH264HighProfile) {
+            if (refs == 1) {
+                disposeFactory();
+            } else {
+                Log.w(TAG, "Reusing factory with H.264 High Profile " + (factoryH264HighProfile ? "on" : "off")
+                        + ", it is shared with another call");
+            }
+        }
+        if (factory == null) {
+            long startMs = System.currentTimeMillis();
+            factory = new PeerConnectionFactory(null,
+                    new DefaultVideoEncoderFactory(eglContext, true, enableH264HighProfile),
+                    new DefaultVideoDecoderFactory(eglContext));
+            factory.setVideoHwAccelerationOptions(eglContext, eglContext);
+            factoryH264HighProfile = enableH264HighProfile;
+            Log.d(TAG, "Created PeerConnectionFactory in " + (System.currentTimeMillis() - startMs) + " ms");
+        } else {
+            Log.d(TAG, "Reusing warm PeerConnectionFactory");
+        }
+        return factory;
+    }
+
+    private void disposeIfIdle(String reason) {
+        EglBase idleEglBase;
+        synchronized (this) {
+            if (refCount > 0) {
+                return;
+            }
+            if (idleDispose != null) {
+                idleDispose.cancel(false);
+                idleDispose = null;
+            }
+            idleEglBase = eglBase;
+            eglBase = null;
+        }
+        if (factory == null && idleEglBase == null) {
+            return;
+        }
+        Log.d(TAG, "Disposing idle engine: " + reason);
+        disposeFactory();
+        if (idleEglBase != null) {
+            idleEglBase.release();
+        }
+    }
+
+    private void disposeFactory() {
+        if (factory != null) {
+            factory.dispose();
+            factory = null;
+            PeerConnectionFactory.stopInternalTracingCapture();
+            PeerConnectionFactory.shutdownInternalTracer();
+        }
+    }
+}
@@ -15,6 +15,11 @@ public interface PeerConnectionEvents {
      */
     void onIceCandidate(final IceCandidate candidate);
 
+    /**
+     * Callback fired once local ICE candidate gathering is complete.
+     */
+    void onIceGatheringComplete();
+
     /**
      * Callback fired once local ICE candidates are removed.
      */
@@ -28,10 +33,22 @@ public interface PeerConnectionEvents {
 
     /**
      * Callback fired once connection is closed (IceConnectionState is
-     * DISCONNECTED).
+     * DISCONNECTED, or FAILED when ICE restarts are enabled).
      */
     void onIceDisconnected();
 
+    /**
+     * Callback fired once a disconnected connection is established again,
+     * possibly after ICE restarts, |recoveryMs| after it was lost.
+     */
+    void onIceReconnected(long recoveryMs);
+
+    /**
+     * Callback fired once a change of the default network (Wi-Fi to cellular
+     * and back) has been ridden out, with what it cost the call.
+     */
+    void onNetworkHandover(NetworkHandoverMetrics metrics);
+
     /**
      * Callback fired once peer connection is closed.
      */
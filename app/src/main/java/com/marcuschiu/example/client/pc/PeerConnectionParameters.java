@@ -0,0 +1,122 @@
+package com.marcuschiu.example.client.pc;
+
+import com.marcuschiu.example.client.sdp.SdpPolicy;
+
+/**
+ * Per-call peer connection settings.
+ */
+public class PeerConnectionParameters {
+    public final SdpPolicy sdpPolicy;
+    // Replace the policy's video codec order with the ranking measured by
+    // VideoCodecProbe, and enable H.264 High Profile where the hardware has it.
+    // Calls placed before the probe has finished keep the policy's order.
+    public final boolean preferProbedVideoCodecs;
+    // Step the camera capture format up and down with the encoder load and
+    // send bandwidth once the call is connected.
+    public final boolean adaptiveCapture;
+    // Interval of the getStats polling that feeds StatsCollector; 0 disables it.
+    public final long statsIntervalMs;
+    // Restart ICE when the connection drops instead of failing the call. The
+    // initiator sends the restart offer.
+    public final boolean iceRestart;
+    // Gather continually and follow default-network changes so the call moves
+    // between Wi-Fi and cellular; see NetworkHandoverMonitor.
+    public final boolean networkHandover;
+    // Bundling, rtcp-mux, TCP candidates, pre-gathering and certificate type.
+    public final TransportProfile transportProfile;
+    // Audio jitter buffer size and drain speed. Fixed for the whole call: the
+    // bundled WebRTC only takes jitter buffer settings at creation.
+    public final LatencyProfile latencyProfile;
+    // Open a data channel for sending files and blobs; see FileTransferChannel.
+    // Off by default: the channel and its receive directory cost every call.
+    public final boolean fileTransfer;
+    // Open an unordered, unretransmitted data channel for small messages;
+    // see UnreliableChannel.
+    public final boolean unreliableMessaging;
+
+    private PeerConnectionParameters(Builder builder) {
+        this.sdpPolicy = builder.sdpPolicy;
+        this.preferProbedVideoCodecs = builder.preferProbedVideoCodecs;
+        this.adaptiveCapture = builder.adaptiveCapture;
+        this.statsIntervalMs = builder.statsIntervalMs;
+        this.iceRestart = builder.iceRestart;
+        this.networkHandover = builder.networkHandover;
+        this.transportProfile = builder.transportProfile;
+        this.latencyProfile = builder.latencyProfile;
+        this.fileTransfer = builder.fileTransfer;
+        this.unreliableMessaging = builder.unreliableMessaging;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private SdpPolicy sdpPolicy = SdpPolicy.DEFAULT;
+        private boolean preferProbedVideoCodecs;
+        private boolean adaptiveCapture;
+        private long statsIntervalMs = 1000;
+        private boolean iceRestart;
+        private boolean networkHandover;
+        private TransportProfile transportProfile = TransportProfile.DEFAULT;
+        private LatencyProfile latencyProfile = LatencyProfile.BALANCED;
+        private boolean fileTransfer;
+        private boolean unreliableMessaging;
+
+        private Builder() {}
+
+        public Builder setSdpPolicy(SdpPolicy sdpPolicy) {
+            this.sdpPolicy = sdpPolicy;
+            return this;
+        }
+
+        public Builder setPreferProbedVideoCodecs(boolean preferProbedVideoCodecs) {
+            this.preferProbedVideoCodecs = preferProbedVideoCodecs;
+            return this;
+        }
+
+        public Builder setAdaptiveCapture(boolean adaptiveCapture) {
+            this.adaptiveCapture = adaptiveCapture;
+            return this;
+        }
+
+        public Builder setStatsIntervalMs(long statsIntervalMs) {
+            this.statsIntervalMs = statsIntervalMs;
+            return this;
+        }
+
+        public Builder setIceRestart(boolean iceRestart) {
+            this.iceRestart = iceRestart;
+            return this;
+        }
+
+        public Builder setNetworkHandover(boolean networkHandover) {
+            this.networkHandover = networkHandover;
+            return this;
+        }
+
+        public Builder setTransportProfile(TransportProfile transportProfile) {
+            this.transportProfile = transportProfile;
+            return this;
+        }
+
+        public Builder setLatencyProfile(LatencyProfile latencyProfile) {
+            this.latencyProfile = latencyProfile;
+            return this;
+        }
+
+        public Builder setFileTransfer(boolean fileTransfer) {
+            this.fileTransfer = fileTransfer;
+            return this;
+        }
+
+        public Builder setUnreliableMessaging(boolean unreliableMessaging) {
+            this.unreliableMessaging = unreliableMessaging;
+            return this;
+        }
+
+        public PeerConnectionParameters createPeerConnectionParameters() {
+            return new PeerConnectionParameters(this);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.marcuschiu.example.client.pc;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the legacy getStats() on a fixed interval and keeps the last
+ * {@link #WINDOW_SIZE} samples of the key call quality metrics in primitive
+ * ring buffers, from which rolling percentiles are computed without boxing
+ * or per-sample allocation beyond the reports WebRTC itself hands over.
+ *
+ * <p>Counters (bytes, frames, packets) are turned into per-second rates and
+ * loss fractions between consecutive samples. A metric not reported in a
+ * sample is stored as NaN and skipped by the percentiles. All methods,
+ * including the listener callbacks, run on the peer connection executor.
+ */
+public class StatsCollector {
+    static final int WINDOW_SIZE = 60;
+
+    public enum Metric {
+        // Round trip time of the active candidate pair, or of the video sender.
+        RTT_MS,
+        // Inbound audio interarrival jitter.
+        JITTER_MS,
+        // Inbound packets lost over the interval, audio and video.
+        RECEIVE_PACKET_LOSS_PERCENT,
+        // Outbound packets reported lost by the remote side over the interval.
+        SEND_PACKET_LOSS_PERCENT,
+        FRAMES_ENCODED_PER_SECOND,
+        FRAMES_DECODED_PER_SECOND,
+        // Video frames received but not decoded, per second.
+        FRAMES_DROPPED_PER_SECOND,
+        VIDEO_SEND_BITRATE_KBPS,
+        VIDEO_RECEIVE_BITRATE_KBPS,
+        AVAILABLE_SEND_BANDWIDTH_KBPS,
+        AVAILABLE_RECEIVE_BANDWIDTH_KBPS,
+        ENCODE_USAGE_PERCENT,
+        AVG_ENCODE_MS,
+        // 1 while the sender reduces resolution for CPU / bandwidth, else 0.
+        CPU_LIMITED,
+        BANDWIDTH_LIMITED,
+        // Inbound audio jitter buffer: current and target size, and the total
+        // receive-to-playout delay.
+        AUDIO_JITTER_BUFFER_MS,
+        AUDIO_PREFERRED_JITTER_BUFFER_MS,
+        AUDIO_CURRENT_DELAY_MS,
+    }
+
+    /**
+     * Receives every sample once it has been added to the ring buffers.
+     */
+    public interface Listener {
+        void onStatsSample(StatsCollector stats, StatsReport[] reports);
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final ScheduledExecutorService executor;
+    private final PeerConnection pc;
+    private final long intervalMs;
+    private final List<Listener> listeners = new ArrayList<>();
+    private ScheduledFuture<?> poll;
+
+    // samples[metric.ordinal()][slot]; |next| is the slot the next sample goes to.
+    private final double[][] samples = new double[METRICS.length][WINDOW_SIZE];
+    private final double[] scratch = new double[WINDOW_SIZE];
+    private final double[] current = new double[METRICS.length];
+    private int next;
+    private int count;
+
+    // Counters of the previous sample, for rates. -1 until first seen.
+    private double lastTimestampMs = -1;
+    private long lastVideoBytesSent = -1;
+    private long lastVideoBytesReceived = -1;
+    private long lastFramesEncoded = -1;
+    private long lastFramesDecoded = -1;
+    private long lastPacketsReceived = -1;
+    private long lastPacketsReceivedLost = -1;
+    private long lastPacketsSent = -1;
+    private long lastPacketsSentLost = -1;
+
+    // Accumulators of the sample being parsed.
+    private long videoBytesSent;
+    private long videoBytesReceived;
+    private long framesEncoded;
+    private long framesDecoded;
+    private long packetsReceived;
+    private long packetsReceivedLost;
+    private long packetsSent;
+    private long packetsSentLost;
+    private double senderRttMs;
+    private double frameRateReceived;
+    private double frameRateDecoded;
+
+    StatsCollector(ScheduledExecutorService executor, PeerConnection pc, long intervalMs) {
+        this.executor = executor;
+        this.pc = pc;
+        this.intervalMs = intervalMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void start() {
+        if (poll != null || intervalMs <= 0) {
+            return;
+        }
+        poll = executor.scheduleAtFixedRate(
+                () -> pc.getStats(reports -> executor.execute(() -> onStats(reports)), null),
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (poll != null) {
+            poll.cancel(false);
+            poll = null;
+        }
+    }
+
+    /**
+     * Number of samples in the window, at most WINDOW_SIZE.
+     */
+    public int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Value of |metric| in the most recent sample, NaN if it was not reported.
+     */
+    public double getLatest(Metric metric) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return samples[metric.ordinal()][(next + WINDOW_SIZE - 1) % WINDOW_SIZE];
+    }
+
+    /**
+     * Nearest-rank |percentile| (0-100) of |metric| over the window, NaN if
+     * the metric was never reported.
+     */
+    public double getPercentile(Metric metric, double percentile) {
+        final double[] values = samples[metric.ordinal()];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            double value = values[i];
+            if (!Double.isNaN(value)) {
+                scratch[n++] = value;
+            }
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(scratch, 0, n);
+        int rank = (int) Math.ceil(percentile / 100 * n);
+        return scratch[Math.min(n - 1, Math.max(0, rank - 1))];
+    }
+
+    /**
+     * One line per metric with the latest value and p50/p95/p99.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder("Stats over ").append(count).append(" samples:");
+        for (Metric metric : METRICS) {
+            sb.append("\n  ").append(metric).append(": latest=").append(format(getLatest(metric)))
+                    .append(" p50=").append(format(getPercentile(metric, 50)))
+                    .append(" p95=").append(format(getPercentile(metric, 95)))
+                    .append(" p99=").append(format(getPercentile(metric, 99)));
+        }
+        return sb.toString();
+    }
+
+    void onStats(StatsReport[] reports) {
+        if (poll == null) {
+            return;
+        }
+        Arrays.fill(current, Double.NaN);
+        videoBytesSent = videoBytesReceived = framesEncoded = framesDecoded = -1;
+        packetsReceived = packetsReceivedLost = packetsSent = packetsSentLost = -1;
+        senderRttMs = frameRateReceived = frameRateDecoded = Double.NaN;
+        double timestampMs = -1;
+
+        for (StatsReport report : reports) {
+            timestampMs = Math.max(timestampMs, report.timestamp);
+            if (report.type.equals("ssrc")) {
+                parseSsrc(report);
+            } else if (report.type.equals("VideoBwe")) {
+                for (StatsReport.Value value : report.values) {
+                    if (value.name.equals("googAvailableSendBandwidth")) {
+                        current[Metric.AVAILABLE_SEND_BANDWIDTH_KBPS.ordinal()] = parseDouble(value.value) / 1000;
+                    } else if (value.name.equals("googAvailableReceiveBandwidth")) {
+                        current[Metric.AVAILABLE_RECEIVE_BANDWIDTH_KBPS.ordinal()] = parseDouble(value.value) / 1000;
+                    }
+                }
+            } else if (report.type.equals("googCandidatePair")) {
+                parseCandidatePair(report);
+            }
+        }
+
+        if (Double.isNaN(current[Metric.RTT_MS.ordinal()])) {
+            current[Metric.RTT_MS.ordinal()] = senderRttMs;
+        }
+        if (!Double.isNaN(frameRateReceived) && !Double.isNaN(frameRateDecoded)) {
+            current[Metric.FRAMES_DROPPED_PER_SECOND.ordinal()] = Math.max(0, frameRateReceived - frameRateDecoded);
+        }
+        double seconds = lastTimestampMs >= 0 && timestampMs > lastTimestampMs
+                ? (timestampMs - lastTimestampMs) / 1000 : Double.NaN;
+        current[Metric.VIDEO_SEND_BITRATE_KBPS.ordinal()] = rate(videoBytesSent, lastVideoBytesSent, seconds) * 8 / 1000;
+        current[Metric.VIDEO_RECEIVE_BITRATE_KBPS.ordinal()] = rate(videoBytesReceived, lastVideoBytesReceived, seconds) * 8 / 1000;
+        current[Metric.FRAMES_ENCODED_PER_SECOND.ordinal()] = rate(framesEncoded, lastFramesEncoded, seconds);
+        current[Metric.FRAMES_DECODED_PER_SECOND.ordinal()] = rate(framesDecoded, lastFramesDecoded, seconds);
+        current[Metric.RECEIVE_PACKET_LOSS_PERCENT.ordinal()] =
+                lossPercent(packetsReceived, lastPacketsReceived, packetsReceivedLost, lastPacketsReceivedLost, true);
+        current[Metric.SEND_PACKET_LOSS_PERCENT.ordinal()] =
+                lossPercent(packetsSent, lastPacketsSent, packetsSentLost, lastPacketsSentLost, false);
+
+        lastTimestampMs = timestampMs;
+        lastVideoBytesSent = videoBytesSent;
+        lastVideoBytesReceived = videoBytesReceived;
+        lastFramesEncoded = framesEncoded;
+        lastFramesDecoded = framesDecoded;
+        lastPacketsReceived = packetsReceived;
+        lastPacketsReceivedLost = packetsReceivedLost;
+        lastPacketsSent = packetsSent;
+        lastPacketsSentLost = packetsSentLost;
+
+        for (int m = 0; m < METRICS.length; m++) {
+            samples[m][next] = current[m];
+        }
+        next = (next + 1) % WINDOW_SIZE;
+        count = Math.min(count + 1, WINDOW_SIZE);
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onStatsSample(this, reports);
+        }
+    }
+
+    private void parseSsrc(StatsReport report) {
+        final boolean send = report.id.endsWith("_send");
+        boolean video = false;
+        long bytes = -1;
+        long frames = -1;
+        long packets = -1;
+        long lost = -1;
+        double jitterMs = Double.NaN;
+        double jitterBufferMs = Double.NaN;
+        double preferredJitterBufferMs = Double.NaN;
+        double currentDelayMs = Double.NaN;
+        for (StatsReport.Value value : report.values) {
+            switch (value.name) {
+                case "mediaType":
+                    video = value.value.equals("video");
+                    break;
+                case "bytesSent":
+                case "bytesReceived":
+                    bytes = parseLong(value.value);
+                    break;
+                case "framesEncoded":
+                case "framesDecoded":
+                    frames = parseLong(value.value);
+                    break;
+                case "packetsSent":
+                case "packetsReceived":
+                    packets = parseLong(value.value);
+                    break;
+                case "packetsLost":
+                    lost = parseLong(value.value);
+                    break;
+                case "googRtt":
+                    senderRttMs = Double.isNaN(senderRttMs)
+                            ? parseDouble(value.value) : Math.max(senderRttMs, parseDouble(value.value));
+                    break;
+                case "googJitterReceived":
+                    jitterMs = parseDouble(value.value);
+                    break;
+                case "googJitterBufferMs":
+                    jitterBufferMs = parseDouble(value.value);
+                    break;
+                case "googPreferredJitterBufferMs":
+                    preferredJitterBufferMs = parseDouble(value.value);
+                    break;
+                case "googCurrentDelayMs":
+                    currentDelayMs = parseDouble(value.value);
+                    break;
+                case "googEncodeUsagePercent":
+                    current[Metric.ENCODE_USAGE_PERCENT.ordinal()] = parseDouble(value.value);
+                    break;
+                case "googAvgEncodeMs":
+                    current[Metric.AVG_ENCODE_MS.ordinal()] = parseDouble(value.value);
+                    break;
+                case "googCpuLimitedResolution":
+                    current[Metric.CPU_LIMITED.ordinal()] = value.value.equals("true") ? 1 : 0;
+                    break;
+                case "googBandwidthLimitedResolution":
+                    current[Metric.BANDWIDTH_LIMITED.ordinal()] = value.value.equals("true") ? 1 : 0;
+                    break;
+                case "googFrameRateReceived":
+                    frameRateReceived = parseDouble(value.value);
+                    break;
+                case "googFrameRateDecoded":
+                    frameRateDecoded = parseDouble(value.value);
+                    break;
+            }
+        }
+        if (send) {
+            packetsSent = add(packetsSent, packets);
+            packetsSentLost = add(packetsSentLost, lost);
+            if (video) {
+                videoBytesSent = add(videoBytesSent, bytes);
+                framesEncoded = add(framesEncoded, frames);
+            }
+        } else {
+            packetsReceived = add(packetsReceived, packets);
+            packetsReceivedLost = add(packetsReceivedLost, lost);
+            if (video) {
+                videoBytesReceived = add(videoBytesReceived, bytes);
+                framesDecoded = add(framesDecoded, frames);
+            } else {
+                setIfReported(Metric.JITTER_MS, jitterMs);
+                setIfReported(Metric.AUDIO_JITTER_BUFFER_MS, jitterBufferMs);
+                setIfReported(Metric.AUDIO_PREFERRED_JITTER_BUFFER_MS, preferredJitterBufferMs);
+                setIfReported(Metric.AUDIO_CURRENT_DELAY_MS, currentDelayMs);
+            }
+        }
+    }
+
+    private void parseCandidatePair(StatsReport report) {
+        boolean active = false;
+        double rttMs = Double.NaN;
+        for (StatsReport.Value value : report.values) {
+            if (value.name.equals("googActiveConnection")) {
+                active = value.value.equals("true");
+            } else if (value.name.equals("googRtt")) {
+                rttMs = parseDouble(value.value);
+            }
+        }
+        if (active) {
+            current[Metric.RTT_MS.ordinal()] = rttMs;
+        }
+    }
+
+    private void setIfReported(Metric metric, double value) {
+        if (!Double.isNaN(value)) {
+            current[metric.ordinal()] = value;
+        }
+    }
+
+    // Sums counters across SSRCs; -1 means not reported.
+    private static long add(long total, long value) {
+        if (value < 0) {
+            return total;
+        }
+        return total < 0 ? value : total + value;
+    }
+
+    private static double rate(long value, long last, double seconds) {
+        if (value < 0 || last < 0 || value < last || Double.isNaN(seconds)) {
+            return Double.NaN;
+        }
+        return (value - last) / seconds;
+    }
+
+    private static double lossPercent(long packets, long lastPackets, long lost, long lastLost, boolean receive) {
+        // A packet count below the last one means the counters were reset.
+        if (packets < 0 || lastPackets < 0 || lost < 0 || lastLost < 0 || packets < lastPackets) {
+            return Double.NaN;
+        }
+        long packetsDelta = packets - lastPackets;
+        long lostDelta = Math.max(0, lost - lastLost);
+        // Received packet counts exclude the lost ones; sent counts include them.
+        long expected = receive ? packetsDelta + lostDelta : packetsDelta;
+        if (expected <= 0) {
+            return Double.NaN;
+        }
+        return Math.min(100, 100.0 * lostDelta / expected);
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "-" : String.valueOf(Math.round(value * 10) / 10.0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.marcuschiu.example.client.pc;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnection.BundlePolicy;
+import org.webrtc.PeerConnection.IceTransportsType;
+import org.webrtc.PeerConnection.KeyType;
+import org.webrtc.PeerConnection.RtcpMuxPolicy;
+import org.webrtc.PeerConnection.TcpCandidatePolicy;
+
+/**
+ * Named sets of transport settings for the RTC configuration of a call.
+ * PeerConnectionClient logs how long ICE took and how many local candidates
+ * were gathered, tagged with the profile, so profiles can be compared.
+ */
+public enum TransportProfile {
+    /**
+     * Library defaults: balanced bundling, required rtcp-mux, TCP
+     * candidates, no pre-gathering, ECDSA certificates.
+     */
+    DEFAULT(null, BundlePolicy.BALANCED, RtcpMuxPolicy.REQUIRE, TcpCandidatePolicy.ENABLED, 0, KeyType.ECDSA),
+    /**
+     * One transport for all media, gathered as soon as the peer connection
+     * exists instead of when the offer/answer is set.
+     */
+    FAST_SETUP(null, BundlePolicy.MAXBUNDLE, RtcpMuxPolicy.REQUIRE, TcpCandidatePolicy.ENABLED, 1, KeyType.ECDSA),
+    /**
+     * Fewest sockets: one bundled, rtcp-muxed UDP transport, no TCP
+     * candidates.
+     */
+    LOW_PORTS(null, BundlePolicy.MAXBUNDLE, RtcpMuxPolicy.REQUIRE, TcpCandidatePolicy.DISABLED, 0, KeyType.ECDSA),
+    /**
+     * TURN relay candidates only, pre-gathered, for networks that block
+     * direct connections or where the local addresses must not leak.
+     */
+    RELAY_ONLY(IceTransportsType.RELAY, BundlePolicy.MAXBUNDLE, RtcpMuxPolicy.REQUIRE, TcpCandidatePolicy.DISABLED, 1,
+            KeyType.ECDSA);
+
+    // Null leaves all candidate types allowed.
+    public final IceTransportsType iceTransportsType;
+    public final BundlePolicy bundlePolicy;
+    public final RtcpMuxPolicy rtcpMuxPolicy;
+    public final TcpCandidatePolicy tcpCandidatePolicy;
+    // ICE candidates gathered ahead of the offer/answer; 0 gathers on demand.
+    public final int iceCandidatePoolSize;
+    public final KeyType keyType;
+
+    TransportProfile(IceTransportsType iceTransportsType, BundlePolicy bundlePolicy, RtcpMuxPolicy rtcpMuxPolicy,
+                     TcpCandidatePolicy tcpCandidatePolicy, int iceCandidatePoolSize, KeyType keyType) {
+        this.iceTransportsType = iceTransportsType;
+        this.bundlePolicy = bundlePolicy;
+        this.rtcpMuxPolicy = rtcpMuxPolicy;
+        this.tcpCandidatePolicy = tcpCandidatePolicy;
+        this.iceCandidatePoolSize = iceCandidatePoolSize;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Writes the profile's settings into |config|.
+     */
+    public void apply(PeerConnection.RTCConfiguration config) {
+        if (iceTransportsType != null) {
+            config.iceTransportsType = iceTransportsType;
+        }
+        config.bundlePolicy = bundlePolicy;
+        config.rtcpMuxPolicy = rtcpMuxPolicy;
+        config.tcpCandidatePolicy = tcpCandidatePolicy;
+        config.iceCandidatePoolSize = iceCandidatePoolSize;
+        config.keyType = keyType;
+    }
+}
@@ -0,0 +1,162 @@
+package com.marcuschiu.example.client.pc;
+
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small binary messages over an unordered data channel without
+ * retransmissions, for telemetry, pointer positions and control commands
+ * where a late message is worth less than a lost one.
+ *
+ * <p>The channel is negotiated out of band with the same id on both sides,
+ * so there is no open handshake and one channel carries both directions.
+ * Messages are written into direct buffers from a small pool and sent on the
+ * caller's thread; incoming messages are handed to the {@link Listener} on
+ * the WebRTC signaling thread without a copy or a thread hop. A message that
+ * would wait behind more than {@link #MAX_BUFFERED_AMOUNT} bytes is dropped
+ * instead of being queued.
+ */
+public class UnreliableChannel {
+    private static final String TAG = "UnreliableChannel";
+    static final String LABEL = "unreliable";
+    static final int CHANNEL_ID = 2;
+    // Fits in one packet after DTLS, SCTP and UDP overhead, so a message is
+    // either lost or delivered whole.
+    public static final int MAX_MESSAGE_SIZE = 1024;
+    static final long MAX_BUFFERED_AMOUNT = 16 * MAX_MESSAGE_SIZE;
+    private static final int POOL_SIZE = 32;
+
+    public interface Listener {
+        /**
+         * Called on the WebRTC signaling thread. |data| is only valid during
+         * the call.
+         */
+        void onMessage(ByteBuffer data);
+    }
+
+    private final Object lock = new Object();
+    // Guarded by |lock|.
+    private DataChannel channel;
+    private long sent;
+    private long dropped;
+    private volatile boolean open;
+    private volatile Listener listener;
+    // Written on the signaling thread only.
+    private volatile long received;
+
+    // Guarded by itself.
+    private final ByteBuffer[] pool = new ByteBuffer[POOL_SIZE];
+    private int pooled;
+
+    static DataChannel.Init createInit() {
+        DataChannel.Init init = new DataChannel.Init();
+        init.ordered = false;
+        init.maxRetransmits = 0;
+        init.negotiated = true;
+        init.id = CHANNEL_ID;
+        return init;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Returns a cleared direct buffer of MAX_MESSAGE_SIZE bytes to write a
+     * message into. Any thread.
+     */
+    public ByteBuffer acquireBuffer() {
+        synchronized (pool) {
+            if (pooled > 0) {
+                final ByteBuffer buffer = pool[--pooled];
+                pool[pooled] = null;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Sends the bytes between position and limit of |buffer|, which must come
+     * from acquireBuffer(), and returns the buffer to the pool. Any thread.
+     * Returns false if the message was dropped because the channel is not
+     * open or its send buffer is backed up.
+     */
+    public boolean send(ByteBuffer buffer) {
+        boolean queued = false;
+        synchronized (lock) {
+            if (open && channel != null && channel.bufferedAmount() <= MAX_BUFFERED_AMOUNT) {
+                // Copies the bytes before returning, so the buffer can go
+                // back to the pool right away.
+                queued = channel.send(new DataChannel.Buffer(buffer, true));
+            }
+            if (queued) {
+                sent++;
+            } else {
+                dropped++;
+            }
+        }
+        release(buffer);
+        return queued;
+    }
+
+    void attach(final DataChannel dataChannel) {
+        dataChannel.registerObserver(new DataChannel.Observer() {
+            @Override
+            public void onBufferedAmountChange(long previousAmount) {
+            }
+
+            @Override
+            public void onStateChange() {
+                open = dataChannel.state() == DataChannel.State.OPEN;
+            }
+
+            @Override
+            public void onMessage(DataChannel.Buffer buffer) {
+                received++;
+                final Listener listener = UnreliableChannel.this.listener;
+                if (listener != null) {
+                    listener.onMessage(buffer.data);
+                }
+            }
+        });
+        synchronized (lock) {
+            channel = dataChannel;
+        }
+    }
+
+    void detach() {
+        final DataChannel dataChannel;
+        synchronized (lock) {
+            dataChannel = channel;
+            channel = null;
+            open = false;
+            if (dataChannel == null) {
+                return;
+            }
+            Log.d(TAG, sent + " messages sent, " + dropped + " dropped, " + received + " received");
+        }
+        dataChannel.unregisterObserver();
+        dataChannel.close();
+        dataChannel.dispose();
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != MAX_MESSAGE_SIZE) {
+            return;
+        }
+        synchronized (pool) {
+            if (pooled < POOL_SIZE) {
+                pool[pooled++] = buffer;
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.marcuschiu.example.client.pc;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import com.marcuschiu.example.client.sdp.SdpTransforms;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists the MediaCodec encoders and decoders for the codecs WebRTC can
+ * negotiate, times a short synthetic encode on each hardware encoder and ranks
+ * the codecs by what the device can actually sustain. The result is cached on
+ * disk per build fingerprint, so the benchmark only runs once per device and
+ * OS update.
+ *
+ * <p>Only hardware encoders are timed. Without one WebRTC encodes VP8 and VP9
+ * with its built-in libvpx, not with the platform's software MediaCodec, so
+ * timing OMX.google or c2.android encoders says nothing about the call; those
+ * codecs keep the VP8, H264, VP9 order behind the hardware encoders that keep
+ * up.
+ */
+public class VideoCodecProbe {
+    private static final String TAG = "VideoCodecProbe";
+    private static final String CACHE_FILE = "video_codec_probe.json";
+    private static final int CACHE_VERSION = 2;
+
+    private static final String[] CODEC_NAMES = {
+            SdpTransforms.VIDEO_CODEC_VP8, SdpTransforms.VIDEO_CODEC_H264, SdpTransforms.VIDEO_CODEC_VP9};
+    private static final String[] CODEC_MIME_TYPES = {
+            MediaFormat.MIMETYPE_VIDEO_VP8, MediaFormat.MIMETYPE_VIDEO_AVC, MediaFormat.MIMETYPE_VIDEO_VP9};
+    // Same prefixes WebRTC's MediaCodecUtils treats as software implementations.
+    private static final String[] SOFTWARE_IMPLEMENTATION_PREFIXES = {"OMX.google.", "OMX.SEC.", "c2.android."};
+
+    private static final int BENCHMARK_WIDTH = 640;
+    private static final int BENCHMARK_HEIGHT = 480;
+    private static final int BENCHMARK_FPS = 30;
+    private static final int BENCHMARK_BITRATE_BPS = 1000 * 1000;
+    private static final int BENCHMARK_FRAMES = 45;
+    private static final long BENCHMARK_TIMEOUT_MS = 3000;
+    private static final long DEQUEUE_TIMEOUT_US = 10 * 1000;
+    // An encoder that cannot beat this multiple of real time will drop frames
+    // once the camera, renderer and network stack compete for the CPU.
+    private static final double REALTIME_HEADROOM = 1.5;
+
+    private static volatile Capabilities cachedCapabilities;
+    private static final AtomicBoolean prefetchStarted = new AtomicBoolean();
+
+    /**
+     * Probe result for one codec.
+     */
+    public static class CodecCapability {
+        public final String name;
+        public final List<String> encoders;
+        public final List<String> decoders;
+        // Name of the fastest hardware encoder, if any, and whether there is one.
+        // encodeFps is 0 without one.
+        public final String bestEncoder;
+        public final boolean hardwareEncoder;
+        public final double encodeFps;
+
+        CodecCapability(String name, List<String> encoders, List<String> decoders,
+                        String bestEncoder, boolean hardwareEncoder, double encodeFps) {
+            this.name = name;
+            this.encoders = encoders;
+            this.decoders = decoders;
+            this.bestEncoder = bestEncoder;
+            this.hardwareEncoder = hardwareEncoder;
+            this.encodeFps = encodeFps;
+        }
+
+        boolean isRealtime() {
+            return encodeFps >= BENCHMARK_FPS * REALTIME_HEADROOM;
+        }
+    }
+
+    /**
+     * Probe result for the device.
+     */
+    public static class Capabilities {
+        public final List<CodecCapability> codecs;
+        // Codec names, best first, restricted to what WebRTC can encode here.
+        public final List<String> codecRanking;
+        public final boolean h264HighProfileSupported;
+
+        Capabilities(List<CodecCapability> codecs, boolean h264HighProfileSupported) {
+            this.codecs = Collections.unmodifiableList(codecs);
+            this.codecRanking = Collections.unmodifiableList(rank(codecs));
+            this.h264HighProfileSupported = h264HighProfileSupported;
+        }
+    }
+
+    /**
+     * Returns the device capabilities, from memory or the disk cache when
+     * available, probing otherwise. Probing takes a few seconds on first run
+     * and blocks other callers meanwhile; call from a background thread.
+     */
+    public static synchronized Capabilities getCapabilities(Context context) {
+        if (cachedCapabilities != null) {
+            return cachedCapabilities;
+        }
+        File cacheFile = new File(context.getFilesDir(), CACHE_FILE);
+        Capabilities capabilities = readCache(cacheFile);
+        if (capabilities == null) {
+            long startMs = System.currentTimeMillis();
+            capabilities = probe();
+            Log.d(TAG, "Probed video codecs in " + (System.currentTimeMillis() - startMs) + " ms, ranking: "
+                    + capabilities.codecRanking);
+            writeCache(cacheFile, capabilities);
+        }
+        cachedCapabilities = capabilities;
+        return capabilities;
+    }
+
+    /**
+     * Returns the capabilities if a previous probe or cache read has finished,
+     * without blocking. Otherwise starts one in the background, if not already
+     * running, and returns null so the caller can use its static codec order.
+     */
+    public static Capabilities peekCapabilities(Context context) {
+        final Capabilities capabilities = cachedCapabilities;
+        if (capabilities == null) {
+            prefetch(context);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Starts probing on a background thread so a later getCapabilities() or
+     * peekCapabilities() call finds the result cached. Only the first call
+     * starts a thread.
+     */
+    public static void prefetch(final Context context) {
+        if (cachedCapabilities != null || !prefetchStarted.compareAndSet(false, true)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        new Thread(() -> getCapabilities(appContext), TAG).start();
+    }
+
+    private static Capabilities probe() {
+        MediaCodecInfo[] codecInfos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        List<CodecCapability> codecs = new ArrayList<>();
+        boolean h264HighProfileSupported = false;
+        for (int i = 0; i < CODEC_NAMES.length; i++) {
+            String mimeType = CODEC_MIME_TYPES[i];
+            List<String> encoders = new ArrayList<>();
+            List<String> decoders = new ArrayList<>();
+            String bestEncoder = null;
+            double bestFps = 0;
+            for (MediaCodecInfo info : codecInfos) {
+                if (!supportsType(info, mimeType)) {
+                    continue;
+                }
+                if (!info.isEncoder()) {
+                    decoders.add(info.getName());
+                    continue;
+                }
+                encoders.add(info.getName());
+                if (isSoftwareOnly(info.getName())) {
+                    continue;
+                }
+                double fps = measureEncodeFps(info.getName(), mimeType);
+                Log.d(TAG, info.getName() + ": " + Math.round(fps) + " fps");
+                if (fps > bestFps) {
+                    bestFps = fps;
+                    bestEncoder = info.getName();
+                }
+                if (mimeType.equals(MediaFormat.MIMETYPE_VIDEO_AVC) && supportsAvcHighProfile(info)) {
+                    h264HighProfileSupported = true;
+                }
+            }
+            codecs.add(new CodecCapability(CODEC_NAMES[i], encoders, decoders, bestEncoder,
+                    bestEncoder != null, bestFps));
+        }
+        return new Capabilities(codecs, h264HighProfileSupported);
+    }
+
+    // Hardware encoders that keep up come first, fastest first, then codecs
+    // left to libvpx, then hardware encoders that do not keep up; ties keep the
+    // VP8, H264, VP9 order, which puts libvpx VP8 ahead of the slower VP9. H.264
+    // is only ranked with a hardware encoder because WebRTC ships no software
+    // one.
+    private static List<String> rank(List<CodecCapability> codecs) {
+        List<CodecCapability> ranked = new ArrayList<>();
+        for (CodecCapability codec : codecs) {
+            if (!codec.name.equals(SdpTransforms.VIDEO_CODEC_H264) || codec.hardwareEncoder) {
+                ranked.add(codec);
+            }
+        }
+        Collections.sort(ranked, (a, b) -> {
+            int tierA = tier(a);
+            int tierB = tier(b);
+            if (tierA != tierB) {
+                return tierA - tierB;
+            }
+            return Double.compare(b.encodeFps, a.encodeFps);
+        });
+        List<String> names = new ArrayList<>();
+        for (CodecCapability codec : ranked) {
+            names.add(codec.name);
+        }
+        return names;
+    }
+
+    private static int tier(CodecCapability codec) {
+        if (!codec.hardwareEncoder) {
+            return 1;
+        }
+        return codec.isRealtime() ? 0 : 2;
+    }
+
+    private static double measureEncodeFps(String codecName, String mimeType) {
+        MediaCodec codec = null;
+        try {
+            codec = MediaCodec.createByCodecName(codecName);
+            MediaFormat format = MediaFormat.createVideoFormat(mimeType, BENCHMARK_WIDTH, BENCHMARK_HEIGHT);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, BENCHMARK_BITRATE_BPS);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, BENCHMARK_FPS);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+
+            // Two alternating noisy frames so the encoder cannot skip static content.
+            byte[][] frames = {syntheticFrame(1), syntheticFrame(2)};
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int queued = 0;
+            int encoded = 0;
+            long startNs = System.nanoTime();
+            long deadlineNs = startNs + BENCHMARK_TIMEOUT_MS * 1000 * 1000;
+            while (encoded < BENCHMARK_FRAMES && System.nanoTime() < deadlineNs) {
+                if (queued < BENCHMARK_FRAMES) {
+                    int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        byte[] frame = frames[queued % frames.length];
+                        int size = Math.min(input.remaining(), frame.length);
+                        input.put(frame, 0, size);
+                        codec.queueInputBuffer(inputIndex, 0, size, queued * 1000L * 1000 / BENCHMARK_FPS, 0);
+                        queued++;
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                        encoded++;
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                }
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+            return encoded == 0 ? 0 : encoded * 1e9 / elapsedNs;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Encode benchmark failed for " + codecName + ": " + e.getMessage());
+            return 0;
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // Never started.
+                }
+                codec.release();
+            }
+        }
+    }
+
+    private static byte[] syntheticFrame(int seed) {
+        byte[] frame = new byte[BENCHMARK_WIDTH * BENCHMARK_HEIGHT * 3 / 2];
+        int value = seed;
+        for (int i = 0; i < frame.length; i++) {
+            value = value * 1103515245 + 12345;
+            frame[i] = (byte) (value >>> 16);
+        }
+        return frame;
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mimeType) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean supportsAvcHighProfile(MediaCodecInfo info) {
+        try {
+            MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(MediaFormat.MIMETYPE_VIDEO_AVC);
+            for (MediaCodecInfo.CodecProfileLevel profileLevel : capabilities.profileLevels) {
+                if (profileLevel.profile == MediaCodecInfo.CodecProfileLevel.AVCProfileHigh) {
+                    return true;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "No AVC capabilities for " + info.getName());
+        }
+        return false;
+    }
+
+    private static boolean isSoftwareOnly(String codecName) {
+        for (String prefix : SOFTWARE_IMPLEMENTATION_PREFIXES) {
+            if (codecName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Capabilities readCache(File cacheFile) {
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            JSONObject json = new JSONObject(s.hasNext() ? s.next() : "");
+            if (json.getInt("version") != CACHE_VERSION || !json.getString("fingerprint").equals(Build.FINGERPRINT)) {
+                return null;
+            }
+            JSONArray codecsJson = json.getJSONArray("codecs");
+            List<CodecCapability> codecs = new ArrayList<>();
+            for (int i = 0; i < codecsJson.length(); i++) {
+                JSONObject codec = codecsJson.getJSONObject(i);
+                codecs.add(new CodecCapability(
+                        codec.getString("name"),
+                        toList(codec.getJSONArray("encoders")),
+                        toList(codec.getJSONArray("decoders")),
+                        codec.has("bestEncoder") ? codec.getString("bestEncoder") : null,
+                        codec.getBoolean("hardwareEncoder"),
+                        codec.getDouble("encodeFps")));
+            }
+            return new Capabilities(codecs, json.getBoolean("h264HighProfile"));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Ignoring unreadable probe cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCache(File cacheFile, Capabilities capabilities) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("version", CACHE_VERSION);
+            json.put("fingerprint", Build.FINGERPRINT);
+            json.put("h264HighProfile", capabilities.h264HighProfileSupported);
+            JSONArray codecsJson = new JSONArray();
+            for (CodecCapability codec : capabilities.codecs) {
+                JSONObject codecJson = new JSONObject();
+                codecJson.put("name", codec.name);
+                codecJson.put("encoders", new JSONArray(codec.encoders));
+                codecJson.put("decoders", new JSONArray(codec.decoders));
+                codecJson.put("bestEncoder", codec.bestEncoder);
+                codecJson.put("hardwareEncoder", codec.hardwareEncoder);
+                codecJson.put("encodeFps", codec.encodeFps);
+                codecsJson.put(codecJson);
+            }
+            json.put("codecs", codecsJson);
+            try (OutputStream out = new FileOutputStream(cacheFile)) {
+                out.write(json.toString().getBytes("UTF-8"));
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to write probe cache: " + e.getMessage());
+        }
+    }
+
+    private static List<String> toList(JSONArray array) throws JSONException {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            list.add(array.getString(i));
+        }
+        return list;
+    }
+}
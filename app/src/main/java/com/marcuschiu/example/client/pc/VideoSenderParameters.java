@@ -0,0 +1,113 @@
+package com.marcuschiu.example.client.pc;
+
+import java.util.Arrays;
+
+/**
+ * Runtime caps for the local video sender, applied with
+ * {@link PeerConnectionClient#setVideoSenderParameters} without renegotiating
+ * the SDP. Unset (null) values are left as they are.
+ *
+ * <p>The same class describes what was actually applied: the bitrate and
+ * active flags read back from the sender, and the framerate and scale the
+ * video source was adapted to.
+ */
+public class VideoSenderParameters {
+    // Upper bound for every encoding, in kbps; 0 removes the cap.
+    public final Integer maxBitrateKbps;
+    // Per-encoding caps in kbps, in the sender's encoding order (lowest
+    // simulcast layer first); 0 removes the cap. Overrides maxBitrateKbps.
+    public final int[] encodingMaxBitratesKbps;
+    // Framerate and scale act on the video source, so with simulcast they
+    // apply to every layer.
+    public final Integer maxFramerate;
+    // Divides the current capture resolution; 1.0 sends it unscaled.
+    public final Double scaleResolutionDownBy;
+    // Per-encoding active flags, in the sender's encoding order.
+    public final boolean[] activeEncodings;
+
+    /**
+     * Reports the outcome of a setVideoSenderParameters call on the peer
+     * connection executor.
+     */
+    public interface Callback {
+        void onApplied(VideoSenderParameters applied);
+
+        void onFailure(String error);
+    }
+
+    private VideoSenderParameters(Builder builder) {
+        this.maxBitrateKbps = builder.maxBitrateKbps;
+        this.encodingMaxBitratesKbps = builder.encodingMaxBitratesKbps;
+        this.maxFramerate = builder.maxFramerate;
+        this.scaleResolutionDownBy = builder.scaleResolutionDownBy;
+        this.activeEncodings = builder.activeEncodings;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "maxBitrateKbps=" + maxBitrateKbps
+                + ", encodingMaxBitratesKbps=" + Arrays.toString(encodingMaxBitratesKbps)
+                + ", maxFramerate=" + maxFramerate
+                + ", scaleResolutionDownBy=" + scaleResolutionDownBy
+                + ", activeEncodings=" + Arrays.toString(activeEncodings);
+    }
+
+    public static class Builder {
+        private Integer maxBitrateKbps;
+        private int[] encodingMaxBitratesKbps;
+        private Integer maxFramerate;
+        private Double scaleResolutionDownBy;
+        private boolean[] activeEncodings;
+
+        private Builder() {}
+
+        public Builder setMaxBitrateKbps(int maxBitrateKbps) {
+            this.maxBitrateKbps = maxBitrateKbps;
+            return this;
+        }
+
+        public Builder setEncodingMaxBitratesKbps(int... encodingMaxBitratesKbps) {
+            this.encodingMaxBitratesKbps = encodingMaxBitratesKbps.clone();
+            return this;
+        }
+
+        public Builder setMaxFramerate(int maxFramerate) {
+            this.maxFramerate = maxFramerate;
+            return this;
+        }
+
+        public Builder setScaleResolutionDownBy(double scaleResolutionDownBy) {
+            this.scaleResolutionDownBy = scaleResolutionDownBy;
+            return this;
+        }
+
+        public Builder setActiveEncodings(boolean... activeEncodings) {
+            this.activeEncodings = activeEncodings.clone();
+            return this;
+        }
+
+        public VideoSenderParameters createVideoSenderParameters() {
+            if (maxBitrateKbps != null && maxBitrateKbps < 0) {
+                throw new IllegalArgumentException("maxBitrateKbps must not be negative: " + maxBitrateKbps);
+            }
+            if (encodingMaxBitratesKbps != null) {
+                for (int kbps : encodingMaxBitratesKbps) {
+                    if (kbps < 0) {
+                        throw new IllegalArgumentException("Encoding max bitrate must not be negative: " + kbps);
+                    }
+                }
+            }
+            if (maxFramerate != null && maxFramerate <= 0) {
+                throw new IllegalArgumentException("maxFramerate must be positive: " + maxFramerate);
+            }
+            if (scaleResolutionDownBy != null && !(scaleResolutionDownBy >= 1.0)) {
+                throw new IllegalArgumentException("scaleResolutionDownBy must be at least 1: " + scaleResolutionDownBy);
+            }
+            return new VideoSenderParameters(this);
+        }
+    }
+}
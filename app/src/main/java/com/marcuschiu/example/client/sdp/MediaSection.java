@@ -0,0 +1,268 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One m= section of a parsed {@link Sdp}: the media description line split
+ * into its header and payload types, plus every line that follows it up to
+ * the next m= line.
+ */
+public class MediaSection {
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+    private static final String RTCP_FB_PREFIX = "a=rtcp-fb:";
+
+    private final String media;
+    // "m=<media> <port> <proto>" without the trailing space.
+    private final String header;
+    private final List<String> payloadTypes;
+    private final List<String> lines;
+
+    MediaSection(String media, String header, List<String> payloadTypes) {
+        this.media = media;
+        this.header = header;
+        this.payloadTypes = payloadTypes;
+        this.lines = new ArrayList<>();
+    }
+
+    /**
+     * Parses an "m=<media> <port> <proto> <fmt> ..." line, or returns null if
+     * the line does not have the expected format.
+     */
+    static MediaSection parseMediaLine(String mLine) {
+        final int mediaEnd = mLine.indexOf(' ', 2);
+        final int portEnd = mediaEnd < 0 ? -1 : mLine.indexOf(' ', mediaEnd + 1);
+        final int protoEnd = portEnd < 0 ? -1 : mLine.indexOf(' ', portEnd + 1);
+        if (protoEnd < 0) {
+            return null;
+        }
+        final List<String> payloadTypes = new ArrayList<>();
+        int start = protoEnd + 1;
+        while (start < mLine.length()) {
+            int end = mLine.indexOf(' ', start);
+            if (end < 0) {
+                end = mLine.length();
+            }
+            if (end > start) {
+                payloadTypes.add(mLine.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return new MediaSection(mLine.substring(2, mediaEnd), mLine.substring(0, protoEnd), payloadTypes);
+    }
+
+    public String getMedia() {
+        return media;
+    }
+
+    public boolean isAudio() {
+        return "audio".equals(media);
+    }
+
+    public boolean isVideo() {
+        return "video".equals(media);
+    }
+
+    /**
+     * Payload types in the order they appear on the m= line. The list is live;
+     * changes are reflected when the SDP is serialized.
+     */
+    public List<String> getPayloadTypes() {
+        return payloadTypes;
+    }
+
+    /**
+     * Lines following the m= line. The list is live; changes are reflected when
+     * the SDP is serialized.
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the payload types whose a=rtpmap encoding name is |codec|,
+     * compared case-insensitively, in the order of their rtpmap lines.
+     */
+    public List<String> findPayloadTypes(String codec) {
+        final List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            final int space = rtpmapSpace(line);
+            if (space > 0 && encodingNameMatches(line, space + 1, codec)) {
+                result.add(line.substring(RTPMAP_PREFIX.length(), space));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the a=rtpmap encoding name of |payloadType|, or null if it has no
+     * rtpmap line.
+     */
+    public String getCodecName(String payloadType) {
+        for (String line : lines) {
+            final int space = rtpmapSpace(line);
+            if (space > 0 && isPayloadType(line, RTPMAP_PREFIX.length(), space, payloadType)) {
+                final int slash = line.indexOf('/', space + 1);
+                return line.substring(space + 1, slash < 0 ? line.length() : slash);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of |key| in the a=fmtp line of |payloadType|, or null.
+     */
+    public String getFmtpParameter(String payloadType, String key) {
+        final int index = findAttributeLine(FMTP_PREFIX, payloadType);
+        if (index < 0) {
+            return null;
+        }
+        final String line = lines.get(index);
+        int start = FMTP_PREFIX.length() + payloadType.length() + 1;
+        while (start < line.length()) {
+            int end = line.indexOf(';', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            while (start < end && line.charAt(start) == ' ') {
+                start++;
+            }
+            final int eq = line.indexOf('=', start);
+            if (eq > 0 && eq < end && eq - start == key.length() && line.startsWith(key, start)) {
+                return line.substring(eq + 1, end);
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Appends "key=value" to the a=fmtp line of |payloadType|. If there is no
+     * such line a new one is inserted right after the payload type's rtpmap.
+     * Returns false if the payload type has neither line.
+     */
+    public boolean addFmtpParameter(String payloadType, String key, String value) {
+        final int fmtpIndex = findAttributeLine(FMTP_PREFIX, payloadType);
+        if (fmtpIndex >= 0) {
+            lines.set(fmtpIndex, lines.get(fmtpIndex) + "; " + key + "=" + value);
+            return true;
+        }
+        final int rtpmapIndex = findAttributeLine(RTPMAP_PREFIX, payloadType);
+        if (rtpmapIndex < 0) {
+            return false;
+        }
+        lines.add(rtpmapIndex + 1, FMTP_PREFIX + payloadType + " " + key + "=" + value);
+        return true;
+    }
+
+    /**
+     * Moves |preferred| to the front of the m= line payload list, keeping the
+     * relative order of everything else.
+     */
+    public void movePayloadTypesToFront(List<String> preferred) {
+        final List<String> reordered = new ArrayList<>(payloadTypes.size());
+        for (String payloadType : preferred) {
+            if (payloadTypes.contains(payloadType) && !reordered.contains(payloadType)) {
+                reordered.add(payloadType);
+            }
+        }
+        for (String payloadType : payloadTypes) {
+            if (!reordered.contains(payloadType)) {
+                reordered.add(payloadType);
+            }
+        }
+        payloadTypes.clear();
+        payloadTypes.addAll(reordered);
+    }
+
+    /**
+     * Removes |removed| from the m= line together with their rtpmap, fmtp and
+     * rtcp-fb lines.
+     */
+    public void removePayloadTypes(Collection<String> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        payloadTypes.removeAll(removed);
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            final String line = lines.get(i);
+            final int prefixLength;
+            if (line.startsWith(RTPMAP_PREFIX)) {
+                prefixLength = RTPMAP_PREFIX.length();
+            } else if (line.startsWith(FMTP_PREFIX)) {
+                prefixLength = FMTP_PREFIX.length();
+            } else if (line.startsWith(RTCP_FB_PREFIX)) {
+                prefixLength = RTCP_FB_PREFIX.length();
+            } else {
+                continue;
+            }
+            int end = line.indexOf(' ', prefixLength);
+            if (end < 0) {
+                end = line.length();
+            }
+            for (String payloadType : removed) {
+                if (isPayloadType(line, prefixLength, end, payloadType)) {
+                    lines.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    void appendTo(StringBuilder sb) {
+        sb.append(header);
+        for (String payloadType : payloadTypes) {
+            sb.append(' ').append(payloadType);
+        }
+        sb.append(Sdp.CRLF);
+        for (String line : lines) {
+            sb.append(line).append(Sdp.CRLF);
+        }
+    }
+
+    int length() {
+        int length = header.length() + Sdp.CRLF.length();
+        for (String payloadType : payloadTypes) {
+            length += payloadType.length() + 1;
+        }
+        for (String line : lines) {
+            length += line.length() + Sdp.CRLF.length();
+        }
+        return length;
+    }
+
+    private int findAttributeLine(String prefix, String payloadType) {
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            if (line.startsWith(prefix)
+                    && line.length() > prefix.length() + payloadType.length()
+                    && line.charAt(prefix.length() + payloadType.length()) == ' '
+                    && line.startsWith(payloadType, prefix.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the index of the space after the payload type of an
+    // "a=rtpmap:<payload type> <encoding name>/<clock rate>" line, or -1.
+    private static int rtpmapSpace(String line) {
+        if (!line.startsWith(RTPMAP_PREFIX)) {
+            return -1;
+        }
+        return line.indexOf(' ', RTPMAP_PREFIX.length());
+    }
+
+    private static boolean encodingNameMatches(String line, int start, String codec) {
+        final int end = start + codec.length();
+        return line.length() > end
+                && line.charAt(end) == '/'
+                && line.regionMatches(true, start, codec, 0, codec.length());
+    }
+
+    private static boolean isPayloadType(String line, int start, int end, String payloadType) {
+        return end - start == payloadType.length() && line.startsWith(payloadType, start);
+    }
+}
@@ -0,0 +1,87 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable, line-oriented model of a session description. The description is
+ * split once into its session-level lines and one {@link MediaSection} per m=
+ * line, so several munging steps can run against it before it is serialized
+ * again with {@link #toString()}.
+ */
+public class Sdp {
+    static final String CRLF = "\r\n";
+
+    private final List<String> sessionLines = new ArrayList<>();
+    private final List<MediaSection> mediaSections = new ArrayList<>();
+
+    private Sdp() {
+    }
+
+    public static Sdp parse(String description) {
+        final Sdp sdp = new Sdp();
+        MediaSection current = null;
+        int start = 0;
+        final int length = description.length();
+        while (start < length) {
+            int end = description.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            final int lineEnd = end > start && description.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                final String line = description.substring(start, lineEnd);
+                final MediaSection section = line.startsWith("m=") ? MediaSection.parseMediaLine(line) : null;
+                if (section != null) {
+                    current = section;
+                    sdp.mediaSections.add(section);
+                } else if (current != null) {
+                    current.getLines().add(line);
+                } else {
+                    sdp.sessionLines.add(line);
+                }
+            }
+            start = end + 1;
+        }
+        return sdp;
+    }
+
+    public List<String> getSessionLines() {
+        return sessionLines;
+    }
+
+    public List<MediaSection> getMediaSections() {
+        return mediaSections;
+    }
+
+    /**
+     * Returns the first m= section for |media| ("audio", "video", ...), or null.
+     */
+    public MediaSection findMediaSection(String media) {
+        for (MediaSection section : mediaSections) {
+            if (section.getMedia().equals(media)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        int length = 0;
+        for (String line : sessionLines) {
+            length += line.length() + CRLF.length();
+        }
+        for (MediaSection section : mediaSections) {
+            length += section.length();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (String line : sessionLines) {
+            sb.append(line).append(CRLF);
+        }
+        for (MediaSection section : mediaSections) {
+            section.appendTo(sb);
+        }
+        return sb.toString();
+    }
+}
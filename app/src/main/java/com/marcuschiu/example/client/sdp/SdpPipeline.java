@@ -0,0 +1,39 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of {@link SdpTransform}s. The description is parsed once, every
+ * transform runs against each m= section during a single walk over the
+ * sections, and the result is serialized once.
+ */
+public class SdpPipeline {
+    private final List<SdpTransform> transforms;
+
+    public SdpPipeline(List<SdpTransform> transforms) {
+        this.transforms = Collections.unmodifiableList(new ArrayList<>(transforms));
+    }
+
+    public List<SdpTransform> getTransforms() {
+        return transforms;
+    }
+
+    public String apply(String description) {
+        if (transforms.isEmpty()) {
+            return description;
+        }
+        final Sdp sdp = Sdp.parse(description);
+        apply(sdp);
+        return sdp.toString();
+    }
+
+    public void apply(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections()) {
+            for (SdpTransform transform : transforms) {
+                transform.apply(section);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declared codec and bitrate policy of a call, turned into the SDP munging
+ * pipelines applied to the local and remote descriptions.
+ */
+public class SdpPolicy {
+    public static final String OPUS_PARAM_MAX_AVERAGE_BITRATE = "maxaveragebitrate";
+
+    /**
+     * Prefers VP8 and caps Opus at 32 kbps, leaving everything else as
+     * negotiated.
+     */
+    public static final SdpPolicy DEFAULT = builder()
+            .setVideoCodecs(Collections.singletonList(SdpTransforms.VIDEO_CODEC_VP8))
+            .setOpusParameter(OPUS_PARAM_MAX_AVERAGE_BITRATE, Integer.toString(32 * 1000))
+            .createSdpPolicy();
+
+    // Codec names in order of preference. Empty keeps the negotiated order.
+    public final List<String> videoCodecs;
+    public final List<String> audioCodecs;
+    // Bitrates in kbps; zero leaves the bound to the engine.
+    public final int videoStartBitrateKbps;
+    public final int videoMinBitrateKbps;
+    public final int videoMaxBitrateKbps;
+    public final Map<String, String> opusParameters;
+    // Drop every codec not listed in videoCodecs/audioCodecs from the SDP.
+    public final boolean stripUnusedCodecs;
+    // Number of spatial layers the local video is sent as; 1 disables
+    // simulcast. Only useful when the call is routed through a media server.
+    public final int simulcastLayers;
+
+    private SdpPolicy(Builder builder) {
+        this.videoCodecs = Collections.unmodifiableList(new ArrayList<>(builder.videoCodecs));
+        this.audioCodecs = Collections.unmodifiableList(new ArrayList<>(builder.audioCodecs));
+        this.videoStartBitrateKbps = builder.videoStartBitrateKbps;
+        this.videoMinBitrateKbps = builder.videoMinBitrateKbps;
+        this.videoMaxBitrateKbps = builder.videoMaxBitrateKbps;
+        this.opusParameters = Collections.unmodifiableMap(new LinkedHashMap<>(builder.opusParameters));
+        this.stripUnusedCodecs = builder.stripUnusedCodecs;
+        this.simulcastLayers = builder.simulcastLayers;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Builder toBuilder() {
+        return new Builder()
+                .setVideoCodecs(videoCodecs)
+                .setAudioCodecs(audioCodecs)
+                .setVideoBitrateKbps(videoStartBitrateKbps, videoMinBitrateKbps, videoMaxBitrateKbps)
+                .setOpusParameters(opusParameters)
+                .setStripUnusedCodecs(stripUnusedCodecs)
+                .setSimulcastLayers(simulcastLayers);
+    }
+
+    /**
+     * Pipeline for the locally created offer/answer: codec order and trimming,
+     * which is what the remote side gets to see, and the simulcast SSRCs.
+     * Create one per call; the simulcast step remembers its SSRCs.
+     */
+    public SdpPipeline createLocalPipeline() {
+        final List<SdpTransform> transforms = new ArrayList<>();
+        addCodecTransforms(transforms);
+        if (simulcastLayers > 1) {
+            transforms.add(SdpTransforms.simulcast(simulcastLayers));
+        }
+        return new SdpPipeline(transforms);
+    }
+
+    /**
+     * Pipeline for the remote description: codec order and trimming plus the
+     * bitrate and Opus parameters, which steer our own encoders.
+     */
+    public SdpPipeline createRemotePipeline() {
+        final List<SdpTransform> transforms = new ArrayList<>();
+        addCodecTransforms(transforms);
+        if (!videoCodecs.isEmpty()
+                && (videoStartBitrateKbps > 0 || videoMinBitrateKbps > 0 || videoMaxBitrateKbps > 0)) {
+            transforms.add(SdpTransforms.videoBitrate(
+                    videoCodecs, videoStartBitrateKbps, videoMinBitrateKbps, videoMaxBitrateKbps));
+        }
+        if (!opusParameters.isEmpty()) {
+            transforms.add(SdpTransforms.opusParameters(opusParameters));
+        }
+        return new SdpPipeline(transforms);
+    }
+
+    private void addCodecTransforms(List<SdpTransform> transforms) {
+        if (!videoCodecs.isEmpty()) {
+            if (stripUnusedCodecs) {
+                transforms.add(SdpTransforms.stripUnusedCodecs("video", videoCodecs));
+            }
+            transforms.add(SdpTransforms.preferCodecs("video", videoCodecs));
+        }
+        if (!audioCodecs.isEmpty()) {
+            if (stripUnusedCodecs) {
+                transforms.add(SdpTransforms.stripUnusedCodecs("audio", audioCodecs));
+            }
+            transforms.add(SdpTransforms.preferCodecs("audio", audioCodecs));
+        }
+    }
+
+    public static class Builder {
+        private List<String> videoCodecs = Collections.emptyList();
+        private List<String> audioCodecs = Collections.emptyList();
+        private int videoStartBitrateKbps;
+        private int videoMinBitrateKbps;
+        private int videoMaxBitrateKbps;
+        private final Map<String, String> opusParameters = new LinkedHashMap<>();
+        private boolean stripUnusedCodecs;
+        private int simulcastLayers = 1;
+
+        private Builder() {}
+
+        public Builder setVideoCodecs(List<String> videoCodecs) {
+            this.videoCodecs = videoCodecs;
+            return this;
+        }
+
+        public Builder setAudioCodecs(List<String> audioCodecs) {
+            this.audioCodecs = audioCodecs;
+            return this;
+        }
+
+        public Builder setVideoBitrateKbps(int startKbps, int minKbps, int maxKbps) {
+            this.videoStartBitrateKbps = startKbps;
+            this.videoMinBitrateKbps = minKbps;
+            this.videoMaxBitrateKbps = maxKbps;
+            return this;
+        }
+
+        public Builder setOpusParameter(String key, String value) {
+            opusParameters.put(key, value);
+            return this;
+        }
+
+        public Builder setOpusParameters(Map<String, String> parameters) {
+            opusParameters.clear();
+            opusParameters.putAll(parameters);
+            return this;
+        }
+
+        public Builder setStripUnusedCodecs(boolean stripUnusedCodecs) {
+            this.stripUnusedCodecs = stripUnusedCodecs;
+            return this;
+        }
+
+        public Builder setSimulcastLayers(int simulcastLayers) {
+            this.simulcastLayers = simulcastLayers;
+            return this;
+        }
+
+        public SdpPolicy createSdpPolicy() {
+            return new SdpPolicy(this);
+        }
+    }
+}
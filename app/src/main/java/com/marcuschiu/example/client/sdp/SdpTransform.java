@@ -0,0 +1,9 @@
+package com.marcuschiu.example.client.sdp;
+
+/**
+ * A single munging step of an {@link SdpPipeline}. Transforms are handed each
+ * m= section of the description in turn and edit it in place.
+ */
+public interface SdpTransform {
+    void apply(MediaSection section);
+}
@@ -0,0 +1,147 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Factory methods for the stock {@link SdpTransform}s.
+ */
+public final class SdpTransforms {
+    public static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    public static final String VIDEO_CODEC_PARAM_MIN_BITRATE = "x-google-min-bitrate";
+    public static final String VIDEO_CODEC_PARAM_MAX_BITRATE = "x-google-max-bitrate";
+    public static final String VIDEO_CODEC_VP8 = "VP8";
+    public static final String VIDEO_CODEC_VP9 = "VP9";
+    public static final String VIDEO_CODEC_H264 = "H264";
+    public static final String AUDIO_CODEC_OPUS = "opus";
+
+    private static final String CODEC_RTX = "rtx";
+    // Payload types that carry redundancy or events rather than media; they are
+    // kept when unused codecs are stripped.
+    private static final Set<String> AUXILIARY_CODECS = new HashSet<>(Arrays.asList(
+            "red", "ulpfec", "flexfec-03", "telephone-event"));
+
+    private SdpTransforms() {}
+
+    /**
+     * Moves the payload types of |codecs| to the front of every |media| section,
+     * in the given order.
+     */
+    public static SdpTransform preferCodecs(final String media, final List<String> codecs) {
+        return section -> {
+            if (!section.getMedia().equals(media)) {
+                return;
+            }
+            final List<String> preferred = new ArrayList<>();
+            for (String codec : codecs) {
+                preferred.addAll(section.findPayloadTypes(codec));
+            }
+            section.movePayloadTypesToFront(preferred);
+        };
+    }
+
+    /**
+     * Removes every payload type of |media| sections that is not one of
+     * |codecs|. Retransmission payload types of kept codecs, RED/FEC and
+     * telephone-event are kept. Payload types without an rtpmap are left alone.
+     * A section is never stripped down to nothing but auxiliary payload types.
+     */
+    public static SdpTransform stripUnusedCodecs(final String media, final List<String> codecs) {
+        return section -> {
+            if (!section.getMedia().equals(media)) {
+                return;
+            }
+            final List<String> kept = new ArrayList<>();
+            final List<String> removed = new ArrayList<>();
+            final List<String> rtx = new ArrayList<>();
+            for (String payloadType : section.getPayloadTypes()) {
+                final String codec = section.getCodecName(payloadType);
+                if (codec == null || containsIgnoreCase(codecs, codec)) {
+                    kept.add(payloadType);
+                } else if (CODEC_RTX.equalsIgnoreCase(codec)) {
+                    rtx.add(payloadType);
+                } else if (!AUXILIARY_CODECS.contains(codec.toLowerCase())) {
+                    removed.add(payloadType);
+                }
+            }
+            if (kept.isEmpty()) {
+                return;
+            }
+            for (String payloadType : rtx) {
+                final String apt = section.getFmtpParameter(payloadType, "apt");
+                if (apt == null || removed.contains(apt)) {
+                    removed.add(payloadType);
+                }
+            }
+            section.removePayloadTypes(removed);
+        };
+    }
+
+    /**
+     * Sets the x-google start/min/max bitrates, in kbps, on every payload type
+     * of |codecs| in video sections. Zero leaves a bound unset.
+     */
+    public static SdpTransform videoBitrate(final List<String> codecs,
+                                            final int startKbps, final int minKbps, final int maxKbps) {
+        return section -> {
+            if (!section.isVideo()) {
+                return;
+            }
+            for (String codec : codecs) {
+                for (String payloadType : section.findPayloadTypes(codec)) {
+                    putFmtpParameter(section, payloadType, VIDEO_CODEC_PARAM_MIN_BITRATE, minKbps);
+                    putFmtpParameter(section, payloadType, VIDEO_CODEC_PARAM_START_BITRATE, startKbps);
+                    putFmtpParameter(section, payloadType, VIDEO_CODEC_PARAM_MAX_BITRATE, maxKbps);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds |params| (for example maxaveragebitrate, stereo, usedtx) to the fmtp
+     * line of every Opus payload type. Parameters already present are left as
+     * they are.
+     */
+    public static SdpTransform opusParameters(final Map<String, String> params) {
+        return section -> {
+            if (!section.isAudio()) {
+                return;
+            }
+            for (String payloadType : section.findPayloadTypes(AUDIO_CODEC_OPUS)) {
+                for (Map.Entry<String, String> param : params.entrySet()) {
+                    if (section.getFmtpParameter(payloadType, param.getKey()) == null) {
+                        section.addFmtpParameter(payloadType, param.getKey(), param.getValue());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a simulcast group of |layers| SSRCs to the local video SSRC of Plan
+     * B descriptions. The transform is stateful: it keeps the generated SSRCs
+     * for later offers, so use one instance per call.
+     */
+    public static SdpTransform simulcast(int layers) {
+        return new SimulcastTransform(layers);
+    }
+
+    private static void putFmtpParameter(MediaSection section, String payloadType, String key, int value) {
+        if (value > 0 && section.getFmtpParameter(payloadType, key) == null) {
+            section.addFmtpParameter(payloadType, key, Integer.toString(value));
+        }
+    }
+
+    private static boolean containsIgnoreCase(List<String> values, String value) {
+        for (String candidate : values) {
+            if (candidate.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,147 @@
+package com.marcuschiu.example.client.sdp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Turns the single local video SSRC of a Plan B description into a simulcast
+ * group: extra SSRCs (each with its own RTX SSRC when the original has one)
+ * carrying the same cname/msid/mslabel/label attributes, tied together with
+ * an a=ssrc-group:SIM line, lowest layer first. Setting such a description
+ * locally makes the engine encode one spatial layer per SSRC.
+ *
+ * <p>The generated SSRCs are remembered per original SSRC, so re-offers (ICE
+ * restarts, renegotiation) keep the same layers. Descriptions that already
+ * carry a SIM group are left alone.
+ */
+class SimulcastTransform implements SdpTransform {
+    private static final String SSRC_PREFIX = "a=ssrc:";
+    private static final String SSRC_GROUP_PREFIX = "a=ssrc-group:";
+    private static final String FID_GROUP_PREFIX = "a=ssrc-group:FID ";
+    private static final String SIM_GROUP_PREFIX = "a=ssrc-group:SIM";
+
+    private final int layers;
+    private final Random random = new Random();
+    // Original primary SSRC -> {primary, rtx} SSRC pairs of every layer.
+    private final Map<Long, long[][]> layerSsrcs = new HashMap<>();
+
+    SimulcastTransform(int layers) {
+        this.layers = layers;
+    }
+
+    @Override
+    public void apply(MediaSection section) {
+        if (!section.isVideo() || layers < 2) {
+            return;
+        }
+        final List<String> lines = section.getLines();
+        long primary = -1;
+        long rtx = -1;
+        for (String line : lines) {
+            if (line.startsWith(SIM_GROUP_PREFIX)) {
+                return;
+            }
+            if (line.startsWith(FID_GROUP_PREFIX) && primary < 0) {
+                final String[] ssrcs = line.substring(FID_GROUP_PREFIX.length()).split(" ");
+                if (ssrcs.length == 2) {
+                    primary = parseSsrc(ssrcs[0]);
+                    rtx = parseSsrc(ssrcs[1]);
+                }
+            }
+        }
+        if (primary < 0) {
+            for (String line : lines) {
+                if (line.startsWith(SSRC_PREFIX)) {
+                    primary = parseSsrc(line.substring(SSRC_PREFIX.length(), ssrcEnd(line)));
+                    break;
+                }
+            }
+        }
+        if (primary < 0) {
+            // Receive-only section.
+            return;
+        }
+
+        // Attribute lines of the original SSRCs, to be copied to every layer.
+        final List<String> primaryAttributes = new ArrayList<>();
+        final List<String> rtxAttributes = new ArrayList<>();
+        final Set<Long> usedSsrcs = new HashSet<>();
+        int insertAt = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            if (!line.startsWith(SSRC_PREFIX) && !line.startsWith(SSRC_GROUP_PREFIX)) {
+                continue;
+            }
+            insertAt = i + 1;
+            if (!line.startsWith(SSRC_PREFIX)) {
+                continue;
+            }
+            final int end = ssrcEnd(line);
+            final long ssrc = parseSsrc(line.substring(SSRC_PREFIX.length(), end));
+            usedSsrcs.add(ssrc);
+            if (ssrc == primary) {
+                primaryAttributes.add(line.substring(end));
+            } else if (ssrc == rtx) {
+                rtxAttributes.add(line.substring(end));
+            }
+        }
+
+        long[][] ssrcs = layerSsrcs.get(primary);
+        if (ssrcs == null) {
+            ssrcs = new long[layers][];
+            for (int layer = 0; layer < layers - 1; layer++) {
+                ssrcs[layer] = new long[] {newSsrc(usedSsrcs), rtx < 0 ? -1 : newSsrc(usedSsrcs)};
+            }
+            // The original SSRC carries the top layer, so the stream the
+            // engine already knows keeps full resolution.
+            ssrcs[layers - 1] = new long[] {primary, rtx};
+            layerSsrcs.put(primary, ssrcs);
+        }
+
+        final List<String> added = new ArrayList<>();
+        final StringBuilder sim = new StringBuilder(SIM_GROUP_PREFIX);
+        for (long[] layer : ssrcs) {
+            sim.append(' ').append(layer[0]);
+            if (layer[0] == primary) {
+                continue;
+            }
+            for (String attribute : primaryAttributes) {
+                added.add(SSRC_PREFIX + layer[0] + attribute);
+            }
+            if (layer[1] >= 0) {
+                for (String attribute : rtxAttributes) {
+                    added.add(SSRC_PREFIX + layer[1] + attribute);
+                }
+                added.add(FID_GROUP_PREFIX + layer[0] + " " + layer[1]);
+            }
+        }
+        added.add(sim.toString());
+        lines.addAll(insertAt, added);
+    }
+
+    private long newSsrc(Set<Long> usedSsrcs) {
+        long ssrc;
+        do {
+            ssrc = random.nextInt() & 0xffffffffL;
+        } while (ssrc == 0 || !usedSsrcs.add(ssrc));
+        return ssrc;
+    }
+
+    private static int ssrcEnd(String line) {
+        final int space = line.indexOf(' ', SSRC_PREFIX.length());
+        return space < 0 ? line.length() : space;
+    }
+
+    private static long parseSsrc(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.marcuschiu.example.client.signaling;
+
+import org.json.JSONException;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming encoder/decoder for AppRTC signaling messages.
+ *
+ * <p>Collider wraps every payload as a JSON string inside an envelope, e.g.
+ * {"msg":"{\"type\":\"candidate\",...}","error":""}. Instead of parsing the
+ * envelope, extracting the string and parsing it again, the decoder reads the
+ * payload straight out of the envelope, undoing the outer escaping one
+ * character at a time, and builds the typed message directly. The encoder
+ * likewise writes both escaping levels in one pass into a reused buffer.
+ *
+ * <p>Not thread safe; each owner keeps its own instance on its own thread.
+ */
+public class SignalingCodec {
+    private static final int EOF = -1;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String KEY_ACCEPTS_CANDIDATE_BATCHES = "acceptsCandidateBatches";
+
+    private final StringBuilder out = new StringBuilder(1024);
+    private final StringBuilder scratch = new StringBuilder(256);
+    private final List<IceCandidate> candidateList = new ArrayList<>();
+
+    // Decoder state.
+    private String input;
+    private int pos;
+    // True while reading the payload embedded in the envelope's "msg" string.
+    private boolean nestedRead;
+    // Encoder state: true while writing the payload into the envelope string.
+    private boolean nestedWrite;
+
+    /**
+     * Decodes a Collider frame {"msg":"<payload>","error":"<error>"}.
+     *
+     * @throws JSONException if the frame is malformed, carries an error or
+     *                       has an unknown message type.
+     */
+    public SignalingMessage decodeWebSocketFrame(String frame) throws JSONException {
+        reset(frame);
+        SignalingMessage message = null;
+        String error = null;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if (key.equals("msg")) {
+                    skipWhitespace();
+                    if (read() != '"') {
+                        throw syntaxError("Expected string for msg");
+                    }
+                    nestedRead = true;
+                    skipWhitespace();
+                    if (peek() != EOF) {
+                        message = readMessage();
+                        skipWhitespace();
+                        if (peek() != EOF) {
+                            throw syntaxError("Trailing characters in msg");
+                        }
+                    }
+                    nestedRead = false;
+                    if (read() != '"') {
+                        throw syntaxError("Unterminated msg");
+                    }
+                } else if (key.equals("error")) {
+                    error = readString();
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        skipWhitespace();
+        if (peek() != EOF) {
+            throw syntaxError("Trailing characters");
+        }
+        if (error != null && !error.isEmpty()) {
+            throw new JSONException("WebSocket error message: " + error);
+        }
+        if (message == null) {
+            throw new JSONException("No msg in WebSocket frame: " + frame);
+        }
+        return message;
+    }
+
+    /**
+     * Decodes a bare message payload, as POSTed to and returned by the room
+     * server.
+     */
+    public SignalingMessage decodeMessage(String payload) throws JSONException {
+        reset(payload);
+        SignalingMessage message = readMessage();
+        skipWhitespace();
+        if (peek() != EOF) {
+            throw syntaxError("Trailing characters");
+        }
+        return message;
+    }
+
+    /**
+     * Encodes |message| as a Collider send command,
+     * {"cmd":"send","msg":"<payload>"}.
+     */
+    public String encodeWebSocketSend(SignalingMessage message) {
+        out.setLength(0);
+        out.append("{\"cmd\":\"send\",\"msg\":\"");
+        nestedWrite = true;
+        writeMessage(message);
+        nestedWrite = false;
+        out.append("\"}");
+        return out.toString();
+    }
+
+    /**
+     * Encodes |message| as a bare payload.
+     */
+    public String encodeMessage(SignalingMessage message) {
+        out.setLength(0);
+        writeMessage(message);
+        return out.toString();
+    }
+
+    //////////////
+    // Decoding //
+    //////////////
+
+    private void reset(String input) {
+        this.input = input;
+        this.pos = 0;
+        this.nestedRead = false;
+    }
+
+    private SignalingMessage readMessage() throws JSONException {
+        String type = null;
+        String sdp = null;
+        String id = null;
+        int label = -1;
+        String candidate = null;
+        IceCandidate[] candidates = null;
+        boolean acceptsCandidateBatches = false;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                switch (key) {
+                    case "type":
+                        type = readString();
+                        break;
+                    case "sdp":
+                        sdp = readString();
+                        break;
+                    case "id":
+                        id = readString();
+                        break;
+                    case "label":
+                        label = readInt();
+                        break;
+                    case "candidate":
+                        candidate = readString();
+                        break;
+                    case "candidates":
+                        candidates = readCandidates();
+                        break;
+                    case KEY_ACCEPTS_CANDIDATE_BATCHES:
+                        acceptsCandidateBatches = readBoolean();
+                        break;
+                    default:
+                        skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        if (type == null) {
+            throw new JSONException("No type in signaling message");
+        }
+        switch (type) {
+            case "candidate":
+                return SignalingMessage.candidate(toCandidate(id, label, candidate));
+            case "candidates":
+            case "remove-candidates":
+                if (candidates == null) {
+                    throw new JSONException("No candidates in " + type + " message");
+                }
+                return type.equals("candidates")
+                        ? SignalingMessage.candidates(candidates)
+                        : SignalingMessage.removeCandidates(candidates);
+            case "offer":
+            case "answer":
+                if (sdp == null) {
+                    throw new JSONException("No sdp in " + type + " message");
+                }
+                return SignalingMessage.sessionDescription(
+                        new SessionDescription(SessionDescription.Type.fromCanonicalForm(type), sdp),
+                        acceptsCandidateBatches);
+            case "bye":
+                return SignalingMessage.bye();
+            default:
+                throw new JSONException("Unexpected signaling message type: " + type);
+        }
+    }
+
+    private IceCandidate[] readCandidates() throws JSONException {
+        candidateList.clear();
+        expect('[');
+        if (!consumeIf(']')) {
+            do {
+                String id = null;
+                int label = -1;
+                String candidate = null;
+                expect('{');
+                if (!consumeIf('}')) {
+                    do {
+                        String key = readString();
+                        expect(':');
+                        switch (key) {
+                            case "id":
+                                id = readString();
+                                break;
+                            case "label":
+                                label = readInt();
+                                break;
+                            case "candidate":
+                                candidate = readString();
+                                break;
+                            default:
+                                skipValue();
+                        }
+                    } while (consumeIf(','));
+                    expect('}');
+                }
+                candidateList.add(toCandidate(id, label, candidate));
+            } while (consumeIf(','));
+            expect(']');
+        }
+        IceCandidate[] candidates = candidateList.toArray(new IceCandidate[candidateList.size()]);
+        candidateList.clear();
+        return candidates;
+    }
+
+    private static IceCandidate toCandidate(String id, int label, String candidate) throws JSONException {
+        if (id == null || label < 0 || candidate == null) {
+            throw new JSONException("Incomplete ICE candidate");
+        }
+        return new IceCandidate(id, label, candidate);
+    }
+
+    // Returns the next character of the current level, or EOF. In nested mode
+    // the outer string's escapes are undone and its closing quote reads as EOF.
+    private int read() throws JSONException {
+        if (pos >= input.length()) {
+            return EOF;
+        }
+        char c = input.charAt(pos);
+        if (!nestedRead) {
+            pos++;
+            return c;
+        }
+        if (c == '"') {
+            return EOF;
+        }
+        pos++;
+        return c == '\\' ? readEscape() : c;
+    }
+
+    private int peek() throws JSONException {
+        int savedPos = pos;
+        int c = read();
+        pos = savedPos;
+        return c;
+    }
+
+    // Decodes the escape sequence after a backslash of the raw input.
+    private char readEscape() throws JSONException {
+        if (pos >= input.length()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char c = input.charAt(pos++);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > input.length()) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(input.charAt(pos++), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Invalid escape sequence \\" + c);
+        }
+    }
+
+    // Like read(), but decodes one level of escaping of the current level too.
+    private int readStringChar() throws JSONException {
+        int c = read();
+        if (c != '\\') {
+            return c;
+        }
+        if (!nestedRead) {
+            return readEscape();
+        }
+        // Nested escape: decode the escape character from the outer level,
+        // then interpret it at the inner level.
+        int escaped = read();
+        switch (escaped) {
+            case '"':
+            case '\\':
+            case '/':
+                return escaped;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return value;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private String readString() throws JSONException {
+        skipWhitespace();
+        if (read() != '"') {
+            throw syntaxError("Expected string");
+        }
+        scratch.setLength(0);
+        while (true) {
+            // A closing quote is only recognized before decoding, so that an
+            // escaped quote is kept as content.
+            if (peekQuote()) {
+                read();
+                return scratch.toString();
+            }
+            int c = readStringChar();
+            if (c == EOF) {
+                throw syntaxError("Unterminated string");
+            }
+            scratch.append((char) c);
+        }
+    }
+
+    // True if the next character of the current level is an unescaped quote.
+    private boolean peekQuote() {
+        if (pos >= input.length()) {
+            return false;
+        }
+        char c = input.charAt(pos);
+        if (!nestedRead) {
+            return c == '"';
+        }
+        // At the inner level a quote is written as \" in the outer string.
+        return c == '\\' && pos + 1 < input.length() && input.charAt(pos + 1) == '"';
+    }
+
+    private int readInt() throws JSONException {
+        skipWhitespace();
+        boolean negative = consumeIf('-');
+        int value = 0;
+        int digits = 0;
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            read();
+            value = value * 10 + (c - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            throw syntaxError("Expected integer");
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean readBoolean() throws JSONException {
+        skipWhitespace();
+        if (consumeLiteral("true")) {
+            return true;
+        }
+        if (consumeLiteral("false")) {
+            return false;
+        }
+        throw syntaxError("Expected boolean");
+    }
+
+    private boolean consumeLiteral(String literal) throws JSONException {
+        int savedPos = pos;
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                pos = savedPos;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipValue() throws JSONException {
+        skipWhitespace();
+        int c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            read();
+            int depth = 1;
+            while (depth > 0) {
+                skipWhitespace();
+                if (peekQuote()) {
+                    readString();
+                    continue;
+                }
+                c = read();
+                if (c == EOF) {
+                    throw syntaxError("Unterminated value");
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            // Number, true, false or null.
+            while ((c = peek()) != EOF && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                read();
+            }
+        }
+    }
+
+    private void skipWhitespace() throws JSONException {
+        while (isWhitespace(peek())) {
+            read();
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(char expected) throws JSONException {
+        skipWhitespace();
+        if (read() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private boolean consumeIf(char expected) throws JSONException {
+        skipWhitespace();
+        if (peek() == expected) {
+            read();
+            return true;
+        }
+        return false;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + pos + " of " + input);
+    }
+
+    //////////////
+    // Encoding //
+    //////////////
+
+    private void writeMessage(SignalingMessage message) {
+        switch (message.type) {
+            case CANDIDATE:
+                write('{');
+                writeField("type", "candidate");
+                write(',');
+                writeCandidateFields(message.candidate);
+                write('}');
+                break;
+            case CANDIDATES:
+            case REMOVE_CANDIDATES:
+                write('{');
+                writeField("type", message.type == SignalingMessage.Type.CANDIDATES ? "candidates" : "remove-candidates");
+                write(',');
+                writeString("candidates");
+                write(':');
+                write('[');
+                for (int i = 0; i < message.candidates.length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    write('{');
+                    writeCandidateFields(message.candidates[i]);
+                    write('}');
+                }
+                write(']');
+                write('}');
+                break;
+            case OFFER:
+            case ANSWER:
+                write('{');
+                writeField("sdp", message.sdp.description);
+                write(',');
+                writeField("type", message.type == SignalingMessage.Type.OFFER ? "offer" : "answer");
+                if (message.acceptsCandidateBatches) {
+                    write(',');
+                    writeString(KEY_ACCEPTS_CANDIDATE_BATCHES);
+                    write(':');
+                    writeLiteral("true");
+                }
+                write('}');
+                break;
+            case BYE:
+                write('{');
+                writeField("type", "bye");
+                write('}');
+                break;
+        }
+    }
+
+    private void writeCandidateFields(IceCandidate candidate) {
+        writeString("label");
+        write(':');
+        writeInt(candidate.sdpMLineIndex);
+        write(',');
+        writeField("id", candidate.sdpMid);
+        write(',');
+        writeField("candidate", candidate.sdp);
+    }
+
+    private void writeField(String key, String value) {
+        writeString(key);
+        write(':');
+        writeString(value);
+    }
+
+    private void writeLiteral(String literal) {
+        out.append(literal);
+    }
+
+    // Digits and '-' never need escaping at either level.
+    private void writeInt(int value) {
+        out.append(value);
+    }
+
+    private void writeString(String value) {
+        write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    write('\\');
+                    write(c);
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writeUnicodeEscape(c);
+                    } else {
+                        write(c);
+                    }
+            }
+        }
+        write('"');
+    }
+
+    private void writeUnicodeEscape(char c) {
+        write('\\');
+        write('u');
+        write(HEX_DIGITS[(c >> 12) & 0xf]);
+        write(HEX_DIGITS[(c >> 8) & 0xf]);
+        write(HEX_DIGITS[(c >> 4) & 0xf]);
+        write(HEX_DIGITS[c & 0xf]);
+    }
+
+    // Writes one character of the current level, escaping it for the
+    // enclosing envelope string when nested.
+    private void write(char c) {
+        if (!nestedWrite) {
+            out.append(c);
+            return;
+        }
+        switch (c) {
+            case '"':
+            case '\\':
+                out.append('\\').append(c);
+                break;
+            default:
+                // Control characters were already escaped at the inner level.
+                out.append(c);
+        }
+    }
+}
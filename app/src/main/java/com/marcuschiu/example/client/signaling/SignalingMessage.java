@@ -0,0 +1,60 @@
+package com.marcuschiu.example.client.signaling;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+/**
+ * A decoded AppRTC signaling message. Which fields are set depends on the type.
+ */
+public class SignalingMessage {
+    public enum Type {CANDIDATE, CANDIDATES, REMOVE_CANDIDATES, OFFER, ANSWER, BYE}
+
+    public final Type type;
+    // CANDIDATE.
+    public final IceCandidate candidate;
+    // CANDIDATES and REMOVE_CANDIDATES.
+    public final IceCandidate[] candidates;
+    // OFFER and ANSWER.
+    public final SessionDescription sdp;
+    // OFFER and ANSWER: the sender understands CANDIDATES messages. Sent as an
+    // extra field that stock AppRTC peers ignore.
+    public final boolean acceptsCandidateBatches;
+
+    private SignalingMessage(Type type, IceCandidate candidate, IceCandidate[] candidates, SessionDescription sdp,
+                             boolean acceptsCandidateBatches) {
+        this.type = type;
+        this.candidate = candidate;
+        this.candidates = candidates;
+        this.sdp = sdp;
+        this.acceptsCandidateBatches = acceptsCandidateBatches;
+    }
+
+    public static SignalingMessage candidate(IceCandidate candidate) {
+        return new SignalingMessage(Type.CANDIDATE, candidate, null, null, false);
+    }
+
+    /**
+     * A batch of candidates sent as one message. Only understood by peers
+     * running this client.
+     */
+    public static SignalingMessage candidates(IceCandidate[] candidates) {
+        return new SignalingMessage(Type.CANDIDATES, null, candidates, null, false);
+    }
+
+    public static SignalingMessage removeCandidates(IceCandidate[] candidates) {
+        return new SignalingMessage(Type.REMOVE_CANDIDATES, null, candidates, null, false);
+    }
+
+    public static SignalingMessage sessionDescription(SessionDescription sdp) {
+        return sessionDescription(sdp, false);
+    }
+
+    public static SignalingMessage sessionDescription(SessionDescription sdp, boolean acceptsCandidateBatches) {
+        return new SignalingMessage(sdp.type == SessionDescription.Type.OFFER ? Type.OFFER : Type.ANSWER,
+                null, null, sdp, acceptsCandidateBatches);
+    }
+
+    public static SignalingMessage bye() {
+        return new SignalingMessage(Type.BYE, null, null, null, false);
+    }
+}
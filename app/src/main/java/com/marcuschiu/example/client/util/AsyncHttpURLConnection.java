@@ -1,17 +1,20 @@
 package com.marcuschiu.example.client.util;
 
+import android.util.Log;
+
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Asynchronous http requests implementation.
  */
 public class AsyncHttpURLConnection {
+  private static final String TAG = "AsyncHttpURLConnection";
   private static final int HTTP_TIMEOUT_MS = 8000;
   private static final String HTTP_ORIGIN = "https://appr.tc";
   private final String method;
@@ -19,6 +22,7 @@ public class AsyncHttpURLConnection {
   private final String message;
   private final AsyncHttpEvents events;
   private String contentType;
+  private AsyncHttpTimingEvents timingEvents;
 
   /**
    * Http requests callbacks.
@@ -28,6 +32,14 @@ public class AsyncHttpURLConnection {
     void onHttpComplete(String response);
   }
 
+  /**
+   * Optional per-request timing callback, fired before onHttpComplete or
+   * onHttpError of requests that got a response.
+   */
+  public interface AsyncHttpTimingEvents {
+    void onHttpTimings(HttpTimings timings);
+  }
+
   public AsyncHttpURLConnection(String method, String url, String message, AsyncHttpEvents events) {
     this.method = method;
     this.url = url;
@@ -39,13 +51,41 @@ public class AsyncHttpURLConnection {
     this.contentType = contentType;
   }
 
+  public void setTimingEvents(AsyncHttpTimingEvents timingEvents) {
+    this.timingEvents = timingEvents;
+  }
+
   public void send() {
-    new Thread(this ::sendHttpMessage).start();
+    // Requests to the same origin run in order and, one after another, reuse
+    // the same keep-alive connection. A full queue is reported as an error
+    // instead of spawning yet another thread.
+    try {
+      HttpExecutor.getShared().execute(getOrigin(url), this ::sendHttpMessage);
+    } catch (RejectedExecutionException e) {
+      events.onHttpError("HTTP " + method + " to " + url + " rejected: request queue is full");
+    }
+  }
+
+  public static HttpExecutor.Metrics getExecutorMetrics() {
+    return HttpExecutor.getShared().getMetrics();
+  }
+
+  // Returns scheme://host:port of |url|, or |url| itself if it does not parse.
+  public static String getOrigin(String url) {
+    try {
+      URL parsed = new URL(url);
+      int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+      return parsed.getProtocol() + "://" + parsed.getHost() + ":" + port;
+    } catch (MalformedURLException e) {
+      return url;
+    }
   }
 
   private void sendHttpMessage() {
     try {
-      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      URL requestUrl = new URL(url);
+      HttpTimings.Recorder timings = new HttpTimings.Recorder(method, url);
+      HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection();
       byte[] postData = new byte[0];
       if (message != null) {
         postData = message.getBytes("UTF-8");
@@ -68,6 +108,7 @@ public class AsyncHttpURLConnection {
       } else {
         connection.setRequestProperty("Content-Type", contentType);
       }
+      timings.connect(connection);
 
       // Send POST request.
       if (doOutput && postData.length > 0) {
@@ -75,19 +116,21 @@ public class AsyncHttpURLConnection {
         outStream.write(postData);
         outStream.close();
       }
+      timings.requestSent();
 
-      // Get response.
-      int responseCode = connection.getResponseCode();
+      // Get response. Bodies are always read to the end and closed, and the
+      // connection is not disconnected, so the socket goes back to the
+      // keep-alive pool for the next request.
+      int responseCode = timings.getResponseCode(connection);
       if (responseCode != 200) {
+        HttpTimings.readResponse(connection, false);
+        reportTimings(timings.finish());
         events.onHttpError("Non-200 response to " + method + " to URL: " + url + " : "
             + connection.getHeaderField(null));
-        connection.disconnect();
         return;
       }
-      InputStream responseStream = connection.getInputStream();
-      String response = drainStream(responseStream);
-      responseStream.close();
-      connection.disconnect();
+      String response = HttpTimings.readResponse(connection, true);
+      reportTimings(timings.finish());
       events.onHttpComplete(response);
     } catch (SocketTimeoutException e) {
       events.onHttpError("HTTP " + method + " to " + url + " timeout");
@@ -96,9 +139,10 @@ public class AsyncHttpURLConnection {
     }
   }
 
-  // Return the contents of an InputStream as a String.
-  private static String drainStream(InputStream in) {
-    Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
+  private void reportTimings(HttpTimings timings) {
+    Log.d(TAG, timings.toString());
+    if (timingEvents != null) {
+      timingEvents.onHttpTimings(timings);
+    }
   }
 }
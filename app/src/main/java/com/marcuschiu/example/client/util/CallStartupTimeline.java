@@ -0,0 +1,88 @@
+package com.marcuschiu.example.client.util;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records when each call setup stage started and finished, relative to the
+ * timeline's creation, and on which thread. Stages run concurrently, so the
+ * dump shows which of them form the critical path to the first frame.
+ * Thread safe.
+ */
+public class CallStartupTimeline {
+    private static final String TAG = "CallStartupTimeline";
+
+    private final long startNs = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<>();
+
+    private static class Stage {
+        final String name;
+        final String thread;
+        final long beginMs;
+        long endMs = -1;
+
+        Stage(String name, String thread, long beginMs) {
+            this.name = name;
+            this.thread = thread;
+            this.beginMs = beginMs;
+        }
+    }
+
+    /**
+     * Marks the start of a stage that is later closed with {@link #end}.
+     */
+    public synchronized void begin(String stage) {
+        stages.add(new Stage(stage, Thread.currentThread().getName(), elapsedMs()));
+    }
+
+    /**
+     * Closes the most recent open stage called |stage|.
+     */
+    public synchronized void end(String stage) {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            Stage s = stages.get(i);
+            if (s.name.equals(stage) && s.endMs < 0) {
+                s.endMs = elapsedMs();
+                return;
+            }
+        }
+        Log.w(TAG, "end() without begin(): " + stage);
+    }
+
+    /**
+     * Records an instantaneous event.
+     */
+    public synchronized void mark(String event) {
+        long nowMs = elapsedMs();
+        Stage s = new Stage(event, Thread.currentThread().getName(), nowMs);
+        s.endMs = nowMs;
+        stages.add(s);
+    }
+
+    public synchronized void log() {
+        Log.d(TAG, toString());
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Call startup timeline:");
+        for (Stage s : stages) {
+            sb.append("\n  ").append(String.format("%6d ms ", s.beginMs));
+            if (s.endMs < 0) {
+                sb.append("  (open) ");
+            } else if (s.endMs == s.beginMs) {
+                sb.append("         ");
+            } else {
+                sb.append(String.format("+%5d ms ", s.endMs - s.beginMs));
+            }
+            sb.append(s.name).append(" [").append(s.thread).append(']');
+        }
+        return sb.toString();
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - startNs) / 1000000;
+    }
+}
@@ -0,0 +1,212 @@
+package com.marcuschiu.example.client.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded, named thread pool for HTTP requests. Tasks submitted with the same
+ * key (the request's origin) run one at a time in submission order, so POSTs to
+ * the room server cannot overtake each other and reuse one keep-alive
+ * connection; different keys run in parallel. Queue depth and latency are
+ * tracked for {@link #getMetrics()}.
+ */
+public class HttpExecutor {
+    private static final int CORE_POOL_SIZE = 2;
+    private static final int MAX_POOL_SIZE = 4;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final int MAX_QUEUED_TASKS = 64;
+
+    private static final HttpExecutor shared = new HttpExecutor();
+
+    private final ThreadPoolExecutor pool;
+    private final Object lock = new Object();
+    // Tasks waiting behind a running task with the same key. A key is present
+    // while a task for it is queued in or running on the pool.
+    private final Map<String, ArrayDeque<Task>> serialQueues = new HashMap<>();
+
+    // Guarded by |lock|.
+    // Tasks in |serialQueues|; bounded like the pool queue.
+    private int followers;
+    private int pending;
+    private int maxPending;
+    private long submitted;
+    private long completed;
+    private long rejected;
+    private long totalWaitNs;
+    private long maxWaitNs;
+    private long totalRunNs;
+    private long maxRunNs;
+
+    /**
+     * Point-in-time executor statistics.
+     */
+    public static class Metrics {
+        // Tasks submitted but not yet started, including those serialized
+        // behind another request to the same URL.
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final int activeThreads;
+        public final long submitted;
+        public final long completed;
+        public final long rejected;
+        // Time from submission until a thread picked the task up.
+        public final long averageWaitMs;
+        public final long maxWaitMs;
+        // Time spent running the request.
+        public final long averageRunMs;
+        public final long maxRunMs;
+
+        Metrics(int queueDepth, int maxQueueDepth, int activeThreads, long submitted, long completed, long rejected,
+                long averageWaitMs, long maxWaitMs, long averageRunMs, long maxRunMs) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.activeThreads = activeThreads;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.averageWaitMs = averageWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.averageRunMs = averageRunMs;
+            this.maxRunMs = maxRunMs;
+        }
+
+        @Override
+        public String toString() {
+            return "queue=" + queueDepth + " (max " + maxQueueDepth + "), active=" + activeThreads
+                    + ", submitted=" + submitted + ", completed=" + completed + ", rejected=" + rejected
+                    + ", wait avg/max=" + averageWaitMs + "/" + maxWaitMs + " ms"
+                    + ", run avg/max=" + averageRunMs + "/" + maxRunMs + " ms";
+        }
+    }
+
+    private class Task implements Runnable {
+        final String key;
+        final Runnable runnable;
+        final long submitNs = System.nanoTime();
+
+        Task(String key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long startNs = System.nanoTime();
+            synchronized (lock) {
+                pending--;
+                long waitNs = startNs - submitNs;
+                totalWaitNs += waitNs;
+                maxWaitNs = Math.max(maxWaitNs, waitNs);
+            }
+            try {
+                runnable.run();
+            } finally {
+                long runNs = System.nanoTime() - startNs;
+                synchronized (lock) {
+                    completed++;
+                    totalRunNs += runNs;
+                    maxRunNs = Math.max(maxRunNs, runNs);
+                }
+                scheduleNext(key);
+            }
+        }
+    }
+
+    public HttpExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "AsyncHttp-" + threadNumber.getAndIncrement());
+            }
+        };
+        pool = new ThreadPoolExecutor(CORE_POOL_SIZE, MAX_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public static HttpExecutor getShared() {
+        return shared;
+    }
+
+    /**
+     * Runs |runnable| after every task previously submitted with the same key.
+     *
+     * @throws RejectedExecutionException if the pool queue is full, or if
+     *     MAX_QUEUED_TASKS tasks are already waiting behind others with
+     *     the same key.
+     */
+    public void execute(String key, Runnable runnable) {
+        Task task = new Task(key, runnable);
+        synchronized (lock) {
+            ArrayDeque<Task> queue = serialQueues.get(key);
+            if (queue != null) {
+                // A request to the same destination is in flight; go after it.
+                if (followers >= MAX_QUEUED_TASKS) {
+                    rejected++;
+                    throw new RejectedExecutionException(followers + " tasks waiting behind same-key tasks");
+                }
+                queue.add(task);
+                followers++;
+                onSubmitted();
+                return;
+            }
+            serialQueues.put(key, new ArrayDeque<Task>());
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                serialQueues.remove(key);
+                rejected++;
+                throw e;
+            }
+            onSubmitted();
+        }
+    }
+
+    public Metrics getMetrics() {
+        synchronized (lock) {
+            long started = submitted - pending;
+            return new Metrics(pending, maxPending, pool.getActiveCount(), submitted, completed, rejected,
+                    started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNs / started),
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNs),
+                    completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNs / completed),
+                    TimeUnit.NANOSECONDS.toMillis(maxRunNs));
+        }
+    }
+
+    // Must be called with |lock| held.
+    private void onSubmitted() {
+        submitted++;
+        pending++;
+        maxPending = Math.max(maxPending, pending);
+    }
+
+    private void scheduleNext(String key) {
+        Task next;
+        synchronized (lock) {
+            ArrayDeque<Task> queue = serialQueues.get(key);
+            next = queue == null ? null : queue.poll();
+            if (next == null) {
+                serialQueues.remove(key);
+                return;
+            }
+            followers--;
+            try {
+                pool.execute(next);
+                return;
+            } catch (RejectedExecutionException e) {
+                // The pool is saturated. The follower was already accepted, so
+                // run it on this (pool) thread rather than drop it.
+            }
+        }
+        next.run();
+    }
+}
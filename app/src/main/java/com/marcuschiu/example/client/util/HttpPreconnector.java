@@ -0,0 +1,74 @@
+package com.marcuschiu.example.client.util;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Warms up the connection to an HTTP(S) server before the first real request
+ * needs it: a HEAD request resolves the host and does the TCP connect and TLS
+ * handshake, and its keep-alive connection is left in HttpURLConnection's
+ * pool for the request that follows.
+ *
+ * <p>The warm-up runs beside, not in, the origin's serial queue, so a real
+ * request never waits behind it; start it early enough (e.g. before the call
+ * screen opens) that it is done when the request is made.
+ */
+public class HttpPreconnector {
+    private static final String TAG = "HttpPreconnector";
+    private static final int PRECONNECT_TIMEOUT_MS = 5000;
+    // Each warm-up gets its own executor key, outside the serial queue of the
+    // origin's real requests.
+    private static final String EXECUTOR_KEY_PREFIX = "preconnect:";
+    private static final AtomicInteger nextKey = new AtomicInteger();
+
+    private HttpPreconnector() {}
+
+    /**
+     * Starts warming up |serverUrl| on the HTTP executor.
+     */
+    public static void preconnect(final String serverUrl) {
+        preconnect(() -> serverUrl);
+    }
+
+    /**
+     * Like preconnect(String), for a URL that is only known after disk IO,
+     * such as the cached TURN server URL. |serverUrl| is called on the HTTP
+     * executor and may return null to skip the warm-up.
+     */
+    public static void preconnect(final Supplier<String> serverUrl) {
+        try {
+            HttpExecutor.getShared().execute(EXECUTOR_KEY_PREFIX + nextKey.getAndIncrement(), () -> {
+                final String url = serverUrl.get();
+                if (url == null) {
+                    return;
+                }
+                try {
+                    warmUp(new URL(url));
+                } catch (IOException e) {
+                    // Only an optimization; the real request will report errors.
+                    Log.w(TAG, "Preconnect to " + url + " failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Preconnect skipped, HTTP queue is full");
+        }
+    }
+
+    private static void warmUp(URL url) throws IOException {
+        HttpTimings.Recorder recorder = new HttpTimings.Recorder("HEAD", url.toString());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("HEAD");
+        connection.setConnectTimeout(PRECONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(PRECONNECT_TIMEOUT_MS);
+        recorder.connect(connection);
+        int responseCode = recorder.getResponseCode(connection);
+        HttpTimings.readResponse(connection, responseCode < 400);
+        Log.d(TAG, "Preconnected " + url + ": " + recorder.finish());
+    }
+}
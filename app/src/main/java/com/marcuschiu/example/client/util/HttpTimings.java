@@ -0,0 +1,197 @@
+package com.marcuschiu.example.client.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Scanner;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Phase timings of a single HTTP request, in milliseconds.
+ *
+ * <p>HttpURLConnection does not report its phases, so {@link Recorder} times
+ * the DNS lookup itself just before connecting (the connection's own lookup
+ * then hits the resolver cache) and sees the TCP connection complete through
+ * an SSLSocketFactory wrapper, which is called when TLS is layered on top.
+ * {@link #tlsMs} is -1 for plain HTTP and whenever a pooled keep-alive
+ * connection was reused, in which case {@link #connectMs} is near zero.
+ */
+public class HttpTimings {
+    public final String method;
+    public final String url;
+    public final long dnsMs;
+    public final long connectMs;
+    public final long tlsMs;
+    // From the request being written until the status line arrived.
+    public final long ttfbMs;
+    public final long totalMs;
+
+    public HttpTimings(String method, String url, long dnsMs, long connectMs, long tlsMs, long ttfbMs, long totalMs) {
+        this.method = method;
+        this.url = url;
+        this.dnsMs = dnsMs;
+        this.connectMs = connectMs;
+        this.tlsMs = tlsMs;
+        this.ttfbMs = ttfbMs;
+        this.totalMs = totalMs;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url + ": " + (dnsMs >= 0 ? "dns=" + dnsMs + " " : "") + "connect=" + connectMs
+                + (tlsMs >= 0 ? " tls=" + tlsMs : "") + " ttfb=" + ttfbMs + " total=" + totalMs + " ms";
+    }
+
+    /**
+     * Records phase boundaries of a request made through HttpURLConnection.
+     * Not thread safe; one instance per request.
+     */
+    public static class Recorder {
+        private final String method;
+        private final String url;
+        private final long startNs = System.nanoTime();
+        private long dnsDoneNs;
+        // Set by TimingSocketFactory when a new TLS connection is started.
+        private long tcpDoneNs;
+        private long connectDoneNs;
+        private long requestSentNs;
+        private long responseNs;
+
+        public Recorder(String method, String url) {
+            this.method = method;
+            this.url = url;
+        }
+
+        public void connect(HttpURLConnection connection) throws IOException {
+            InetAddress.getAllByName(connection.getURL().getHost());
+            dnsDoneNs = System.nanoTime();
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(TimingSocketFactory.get());
+            }
+            TimingSocketFactory.current.set(this);
+            try {
+                connection.connect();
+            } finally {
+                TimingSocketFactory.current.remove();
+            }
+            connectDoneNs = System.nanoTime();
+        }
+
+        public void requestSent() {
+            requestSentNs = System.nanoTime();
+        }
+
+        public int getResponseCode(HttpURLConnection connection) throws IOException {
+            if (requestSentNs == 0) {
+                requestSent();
+            }
+            int responseCode = connection.getResponseCode();
+            responseNs = System.nanoTime();
+            return responseCode;
+        }
+
+        public HttpTimings finish() {
+            long endNs = System.nanoTime();
+            boolean handshake = tcpDoneNs != 0;
+            return new HttpTimings(method, url,
+                    toMs(dnsDoneNs - startNs),
+                    toMs((handshake ? tcpDoneNs : connectDoneNs) - dnsDoneNs),
+                    handshake ? toMs(connectDoneNs - tcpDoneNs) : -1,
+                    toMs(responseNs - requestSentNs),
+                    toMs(endNs - startNs));
+        }
+
+        private static long toMs(long ns) {
+            return Math.max(0, ns / 1000000);
+        }
+    }
+
+    /**
+     * Delegates to the default SSLSocketFactory and marks the end of the TCP
+     * connect on the calling thread's Recorder when a TLS socket is layered
+     * over it. One instance is shared by every request so that pooled
+     * connections, which are keyed by socket factory, are still reused.
+     * Unconnected sockets are left unimplemented, so HttpURLConnection
+     * connects TCP itself before calling the layering method.
+     */
+    static class TimingSocketFactory extends SSLSocketFactory {
+        static final ThreadLocal<Recorder> current = new ThreadLocal<>();
+        private static TimingSocketFactory instance;
+
+        private final SSLSocketFactory delegate;
+
+        private TimingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        static synchronized TimingSocketFactory get() {
+            SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+            if (instance == null || instance.delegate != defaultFactory) {
+                instance = new TimingSocketFactory(defaultFactory);
+            }
+            return instance;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            Recorder recorder = current.get();
+            if (recorder != null) {
+                recorder.tcpDoneNs = System.nanoTime();
+            }
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+
+    /**
+     * Reads the response body (or the error body for non-2xx responses) to the
+     * end and closes it without disconnecting, so HttpURLConnection can return
+     * the socket to its keep-alive pool.
+     */
+    public static String readResponse(HttpURLConnection connection, boolean success) throws IOException {
+        InputStream in = success ? connection.getInputStream() : connection.getErrorStream();
+        if (in == null) {
+            return "";
+        }
+        try {
+            Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            return s.hasNext() ? s.next() : "";
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,20 +1,9 @@
 package com.marcuschiu.example.client.util;
 
-import android.util.Log;
-
-import com.marcuschiu.example.client.pc.PeerConnectionClient;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class Util {
 
     public static JSONObject toJsonCandidate(final IceCandidate candidate) {
@@ -39,148 +28,4 @@ public class Util {
             throw new RuntimeException(e);
         }
     }
-
-
-    private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
-    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
-
-    public static String setStartBitrate(String sdpDescription) {
-        String[] lines = sdpDescription.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-        // Search for codec rtpmap in format
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        String regex = "^a=rtpmap:(\\d+) " + PeerConnectionClient.AUDIO_CODEC_OPUS + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-        if (codecRtpMap == null) {
-            Log.w("Util.setStartBitrate", "No rtpmap for " + PeerConnectionClient.AUDIO_CODEC_OPUS + " codec");
-            return sdpDescription;
-        }
-
-        // Check if a=fmtp string already exist in remote SDP for this codec and
-        // update it with new bitrate parameter.
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-        codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d("Util.setStartBitrate", "Found " + PeerConnectionClient.AUDIO_CODEC_OPUS + " " + lines[i]);
-                if (false) {
-                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + 32;
-                } else {
-                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (32 * 1000);
-                }
-                Log.d("Util.setStartBitrate", "Update remote SDP line: " + lines[i]);
-                sdpFormatUpdated = true;
-                break;
-            }
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            // Append new a=fmtp line if no such line exist for a codec.
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet;
-                if (false) {
-                    bitrateSet =
-                            "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + 32;
-                } else {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-                            + (32 * 1000);
-                }
-                Log.d("Util.setStartBitrate", "Add remote SDP line: " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
-        }
-        return newSdpDescription.toString();
-    }
-
-    public static String preferCodec(String sdpDescription) {
-        final String[] lines = sdpDescription.split("\r\n");
-        final int mLineIndex = findMediaDescriptionLine(false, lines);
-        if (mLineIndex == -1) {
-            Log.w("PCRTCClient", "No mediaDescription line, so can't prefer " + PeerConnectionClient.VIDEO_CODEC_VP8);
-            return sdpDescription;
-        }
-        // A list with all the payload types with name |codec|. The payload types are integers in the
-        // range 96-127, but they are stored as strings here.
-        final List<String> codecPayloadTypes = new ArrayList<>();
-        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + PeerConnectionClient.VIDEO_CODEC_VP8 + "(/\\d+)+[\r]?$");
-        for (String line : lines) {
-            Matcher codecMatcher = codecPattern.matcher(line);
-            if (codecMatcher.matches()) {
-                codecPayloadTypes.add(codecMatcher.group(1));
-            }
-        }
-        if (codecPayloadTypes.isEmpty()) {
-            Log.w("PCRTCClient", "No payload types with name " + PeerConnectionClient.VIDEO_CODEC_VP8);
-            return sdpDescription;
-        }
-
-        final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-        if (newMLine == null) {
-            return sdpDescription;
-        }
-        lines[mLineIndex] = newMLine;
-        return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
-    }
-
-    private static String movePayloadTypesToFront(List<String> preferredPayloadTypes, String mLine) {
-        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-        final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-        if (origLineParts.size() <= 3) {
-            Log.e("PCRTCClient", "Wrong SDP media description format: " + mLine);
-            return null;
-        }
-        final List<String> header = origLineParts.subList(0, 3);
-        final List<String> unpreferredPayloadTypes =
-                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
-        unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-        // Reconstruct the line with |preferredPayloadTypes| moved to the beginning of the payload
-        // types.
-        final List<String> newLineParts = new ArrayList<>();
-        newLineParts.addAll(header);
-        newLineParts.addAll(preferredPayloadTypes);
-        newLineParts.addAll(unpreferredPayloadTypes);
-        return joinString(newLineParts, " ", false /* delimiterAtEnd */);
-    }
-
-    /**
-     * Returns the line number containing "m=audio|video", or -1 if no such line exists.
-     */
-    private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
-        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-        for (int i = 0; i < sdpLines.length; ++i) {
-            if (sdpLines[i].startsWith(mediaDescription)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static String joinString(Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
-        Iterator<? extends CharSequence> iter = s.iterator();
-        if (!iter.hasNext()) {
-            return "";
-        }
-        StringBuilder buffer = new StringBuilder(iter.next());
-        while (iter.hasNext()) {
-            buffer.append(delimiter).append(iter.next());
-        }
-        if (delimiterAtEnd) {
-            buffer.append(delimiter);
-        }
-        return buffer.toString();
-    }
 }
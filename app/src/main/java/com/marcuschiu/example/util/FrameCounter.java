@@ -0,0 +1,58 @@
+package com.marcuschiu.example.util;
+
+/**
+ * Delivered and dropped frame counts and inter-frame intervals of one video
+ * proxy. Frames come from a single thread at a time, so the counters are
+ * plain volatile fields with one writer: no lock or atomic operation on the
+ * render path, and readers on any thread see recent values.
+ */
+public class FrameCounter {
+    private volatile long deliveredFrames;
+    private volatile long droppedFrames;
+    private volatile long lastFrameNs;
+    private volatile long intervalSumNs;
+    private volatile long maxIntervalNs;
+
+    void onFrame(boolean delivered) {
+        final long nowNs = System.nanoTime();
+        final long lastNs = lastFrameNs;
+        if (lastNs != 0) {
+            final long intervalNs = nowNs - lastNs;
+            intervalSumNs += intervalNs;
+            if (intervalNs > maxIntervalNs) {
+                maxIntervalNs = intervalNs;
+            }
+        }
+        lastFrameNs = nowNs;
+        if (delivered) {
+            deliveredFrames++;
+        } else {
+            droppedFrames++;
+        }
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    // Frames that arrived while no target was set.
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public double getAverageFrameIntervalMs() {
+        final long intervals = deliveredFrames + droppedFrames - 1;
+        return intervals > 0 ? intervalSumNs / 1e6 / intervals : 0;
+    }
+
+    public double getMaxFrameIntervalMs() {
+        return maxIntervalNs / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return deliveredFrames + " delivered, " + droppedFrames + " dropped, interval avg "
+                + String.format("%.1f", getAverageFrameIntervalMs()) + " ms max "
+                + String.format("%.1f", getMaxFrameIntervalMs()) + " ms";
+    }
+}
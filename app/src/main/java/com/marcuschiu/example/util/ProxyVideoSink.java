@@ -1,23 +1,27 @@
 package com.marcuschiu.example.util;
 
-import org.webrtc.Logging;
 import org.webrtc.VideoFrame;
 import org.webrtc.VideoSink;
 
 public class ProxyVideoSink implements VideoSink {
-    private VideoSink target;
+    // Swapped from the UI thread without blocking the frame thread.
+    private volatile VideoSink target;
+    private final FrameCounter frameCounter = new FrameCounter();
 
     @Override
-    synchronized public void onFrame(VideoFrame frame) {
-        if (target == null) {
-            Logging.d("ProxyVideoSink", "Dropping frame in proxy because target is null.");
-            return;
+    public void onFrame(VideoFrame frame) {
+        final VideoSink target = this.target;
+        frameCounter.onFrame(target != null);
+        if (target != null) {
+            target.onFrame(frame);
         }
-
-        target.onFrame(frame);
     }
 
-    synchronized public void setTarget(VideoSink target) {
+    public void setTarget(VideoSink target) {
         this.target = target;
     }
+
+    public FrameCounter getFrameCounter() {
+        return frameCounter;
+    }
 }
@@ -0,0 +1,110 @@
+package com.marcuschiu.example.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IceServerProberTest {
+    private static final long X = IceServerProber.UNREACHABLE;
+
+    private final List<PeerConnection.IceServer> servers = new ArrayList<>();
+    private final List<Boolean> relays = new ArrayList<>();
+    private final List<Long> udpRtts = new ArrayList<>();
+    private final List<Long> streamRtts = new ArrayList<>();
+
+    private PeerConnection.IceServer add(String url, boolean relay, long udpRtt, long streamRtt) {
+        PeerConnection.IceServer server = PeerConnection.IceServer.builder(url).createIceServer();
+        servers.add(server);
+        relays.add(relay);
+        udpRtts.add(udpRtt);
+        streamRtts.add(streamRtt);
+        return server;
+    }
+
+    private List<PeerConnection.IceServer> select(int maxRelays) {
+        final int count = servers.size();
+        boolean[] relay = new boolean[count];
+        long[] udp = new long[count];
+        long[] stream = new long[count];
+        for (int i = 0; i < count; i++) {
+            relay[i] = relays.get(i);
+            udp[i] = udpRtts.get(i);
+            stream[i] = streamRtts.get(i);
+        }
+        return IceServerProber.select(servers, relay, udp, stream, maxRelays);
+    }
+
+    @Test
+    public void closeStunServersDoNotTakeRelaySlots() {
+        PeerConnection.IceServer stun1 = add("stun:a", false, 5, X);
+        add("stun:b", false, 8, X);
+        PeerConnection.IceServer udpRelay = add("turn:c", true, 40, X);
+        PeerConnection.IceServer tcpRelay = add("turn:d?transport=tcp", true, X, 60);
+
+        assertEquals(Arrays.asList(udpRelay, tcpRelay, stun1), select(2));
+    }
+
+    @Test
+    public void keepsAUdpRelayBehindCloserTcpRelays() {
+        PeerConnection.IceServer tcp1 = add("turn:a?transport=tcp", true, X, 10);
+        PeerConnection.IceServer tcp2 = add("turn:b?transport=tcp", true, X, 20);
+        PeerConnection.IceServer udp = add("turn:c", true, 90, X);
+        add("turn:d", true, 120, X);
+
+        assertEquals(Arrays.asList(tcp1, tcp2, udp), select(2));
+    }
+
+    @Test
+    public void addsAStreamFallbackBehindUdpRelays() {
+        PeerConnection.IceServer udp1 = add("turn:a", true, 10, X);
+        add("turn:b", true, 30, X);
+        PeerConnection.IceServer tls = add("turns:c", true, X, 70);
+
+        assertEquals(Arrays.asList(udp1, tls), select(1));
+    }
+
+    @Test
+    public void dropsUnreachableRelays() {
+        PeerConnection.IceServer udp = add("turn:a", true, 10, 15);
+        add("turn:b", true, X, X);
+
+        assertEquals(Arrays.asList(udp), select(2));
+    }
+
+    @Test
+    public void keepsEveryServerOfAKindThatDidNotAnswer() {
+        PeerConnection.IceServer stun = add("stun:a", false, X, X);
+        PeerConnection.IceServer relay1 = add("turn:b", true, X, X);
+        PeerConnection.IceServer relay2 = add("turn:c", true, X, X);
+
+        assertEquals(Arrays.asList(relay1, relay2, stun), select(1));
+    }
+
+    @Test
+    public void parsesIceServerUrls() {
+        IceServerProber.Endpoint endpoint = IceServerProber.parseUrl("turn:1.2.3.4?transport=tcp");
+        assertEquals("1.2.3.4", endpoint.host);
+        assertEquals(3478, endpoint.port);
+        assertEquals("tcp", endpoint.transport);
+        assertEquals(true, endpoint.relay);
+
+        endpoint = IceServerProber.parseUrl("turns:[::1]:443");
+        assertEquals("::1", endpoint.host);
+        assertEquals(443, endpoint.port);
+        assertEquals("tls", endpoint.transport);
+
+        endpoint = IceServerProber.parseUrl("stun:stun.l.google.com:19302");
+        assertEquals(19302, endpoint.port);
+        assertEquals("udp", endpoint.transport);
+        assertEquals(false, endpoint.relay);
+
+        assertNull(IceServerProber.parseUrl("http://example.com"));
+        assertNull(IceServerProber.parseUrl("turn:host:port"));
+    }
+}
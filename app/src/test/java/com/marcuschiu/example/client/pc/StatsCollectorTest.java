@@ -0,0 +1,182 @@
+package com.marcuschiu.example.client.pc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+public class StatsCollectorTest {
+    private static final double DELTA = 1e-9;
+
+    private ScheduledExecutorService executor;
+    private StatsCollector stats;
+
+    @Before
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(1);
+        // The poll never fires within a test; samples are fed through onStats.
+        stats = new StatsCollector(executor, null, 3_600_000);
+        stats.start();
+    }
+
+    @After
+    public void tearDown() {
+        stats.stop();
+        executor.shutdownNow();
+    }
+
+    private static StatsReport report(String id, String type, double timestampMs, String... namesAndValues) {
+        StatsReport.Value[] values = new StatsReport.Value[namesAndValues.length / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new StatsReport.Value(namesAndValues[2 * i], namesAndValues[2 * i + 1]);
+        }
+        return new StatsReport(id, type, timestampMs, values);
+    }
+
+    private static StatsReport videoSend(double timestampMs, long bytes, long frames, long packets, long lost) {
+        return report("ssrc_1_send", "ssrc", timestampMs, "mediaType", "video",
+                "bytesSent", String.valueOf(bytes), "framesEncoded", String.valueOf(frames),
+                "packetsSent", String.valueOf(packets), "packetsLost", String.valueOf(lost));
+    }
+
+    private static StatsReport audioReceive(double timestampMs, long packets, long lost) {
+        return report("ssrc_2_recv", "ssrc", timestampMs, "mediaType", "audio",
+                "packetsReceived", String.valueOf(packets), "packetsLost", String.valueOf(lost));
+    }
+
+    private void sample(StatsReport... reports) {
+        stats.onStats(reports);
+    }
+
+    @Test
+    public void ratesAndLossNeedTwoSamples() {
+        sample(videoSend(1000, 10_000, 30, 100, 0), audioReceive(1000, 50, 0));
+
+        assertEquals(1, stats.getSampleCount());
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS)));
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.SEND_PACKET_LOSS_PERCENT)));
+    }
+
+    @Test
+    public void computesRatesAndLossAcrossSamples() {
+        sample(videoSend(1000, 10_000, 30, 100, 0), audioReceive(1000, 50, 0));
+        // Two seconds later: 50 kB and 60 frames sent, 10 of 100 sent packets
+        // lost, 90 audio packets received and 10 lost.
+        sample(videoSend(3000, 60_000, 90, 200, 10), audioReceive(3000, 140, 10));
+
+        assertEquals(200, stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS), DELTA);
+        assertEquals(30, stats.getLatest(StatsCollector.Metric.FRAMES_ENCODED_PER_SECOND), DELTA);
+        assertEquals(10, stats.getLatest(StatsCollector.Metric.SEND_PACKET_LOSS_PERCENT), DELTA);
+        assertEquals(10, stats.getLatest(StatsCollector.Metric.RECEIVE_PACKET_LOSS_PERCENT), DELTA);
+    }
+
+    @Test
+    public void sumsCountersAcrossSsrcs() {
+        sample(videoSend(1000, 1000, 0, 0, 0),
+                report("ssrc_3_send", "ssrc", 1000, "mediaType", "video", "bytesSent", "2000"));
+        sample(videoSend(2000, 2000, 0, 0, 0),
+                report("ssrc_3_send", "ssrc", 2000, "mediaType", "video", "bytesSent", "4000"));
+
+        assertEquals(24, stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS), DELTA);
+    }
+
+    @Test
+    public void counterResetsYieldNoSampleInsteadOfNegativeOrFullLoss() {
+        sample(videoSend(1000, 100_000, 300, 1000, 5), audioReceive(1000, 1000, 5));
+        // The streams were recreated: every counter starts again from zero.
+        sample(videoSend(2000, 1000, 3, 10, 0), audioReceive(2000, 990, 20));
+
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS)));
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.FRAMES_ENCODED_PER_SECOND)));
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.SEND_PACKET_LOSS_PERCENT)));
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.RECEIVE_PACKET_LOSS_PERCENT)));
+
+        // Rates resume from the post-reset counters.
+        sample(videoSend(3000, 2000, 6, 20, 0), audioReceive(3000, 1000, 20));
+        assertEquals(8, stats.getLatest(StatsCollector.Metric.VIDEO_SEND_BITRATE_KBPS), DELTA);
+        assertEquals(3, stats.getLatest(StatsCollector.Metric.FRAMES_ENCODED_PER_SECOND), DELTA);
+    }
+
+    @Test
+    public void unreportedAndUnparsableValuesAreNaN() {
+        sample(report("bweforvideo", "VideoBwe", 1000, "googAvailableSendBandwidth", "not a number"));
+
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS)));
+        assertTrue(Double.isNaN(stats.getLatest(StatsCollector.Metric.RTT_MS)));
+        assertTrue(Double.isNaN(stats.getPercentile(StatsCollector.Metric.RTT_MS, 50)));
+    }
+
+    @Test
+    public void percentilesSkipNaNSamples() {
+        sample(report("bweforvideo", "VideoBwe", 1000, "googAvailableSendBandwidth", "100000"));
+        sample(report("bweforvideo", "VideoBwe", 2000));
+        sample(report("bweforvideo", "VideoBwe", 3000, "googAvailableSendBandwidth", "300000"));
+
+        assertEquals(3, stats.getSampleCount());
+        assertEquals(100, stats.getPercentile(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS, 50), DELTA);
+        assertEquals(300, stats.getPercentile(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS, 51), DELTA);
+    }
+
+    @Test
+    public void percentilesUseNearestRank() {
+        // Values 1..20 in shuffled order.
+        for (int i = 0; i < 20; i++) {
+            int value = (i * 7) % 20 + 1;
+            sample(report("bweforvideo", "VideoBwe", 1000 * (i + 1),
+                    "googAvailableSendBandwidth", String.valueOf(value * 1000)));
+        }
+
+        StatsCollector.Metric bwe = StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS;
+        assertEquals(1, stats.getPercentile(bwe, 0), DELTA);
+        assertEquals(1, stats.getPercentile(bwe, 5), DELTA);
+        assertEquals(2, stats.getPercentile(bwe, 6), DELTA);
+        assertEquals(10, stats.getPercentile(bwe, 50), DELTA);
+        assertEquals(19, stats.getPercentile(bwe, 95), DELTA);
+        assertEquals(20, stats.getPercentile(bwe, 99), DELTA);
+        assertEquals(20, stats.getPercentile(bwe, 100), DELTA);
+    }
+
+    @Test
+    public void windowKeepsTheLastSamples() {
+        for (int i = 1; i <= StatsCollector.WINDOW_SIZE + 10; i++) {
+            sample(report("bweforvideo", "VideoBwe", 1000 * i,
+                    "googAvailableSendBandwidth", String.valueOf(i * 1000)));
+        }
+
+        StatsCollector.Metric bwe = StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS;
+        assertEquals(StatsCollector.WINDOW_SIZE, stats.getSampleCount());
+        assertEquals(StatsCollector.WINDOW_SIZE + 10, stats.getLatest(bwe), DELTA);
+        assertEquals(11, stats.getPercentile(bwe, 0), DELTA);
+    }
+
+    @Test
+    public void activeCandidatePairRttWinsOverSenderRtt() {
+        sample(report("ssrc_1_send", "ssrc", 1000, "mediaType", "video", "googRtt", "80"),
+                report("Conn-0", "googCandidatePair", 1000, "googActiveConnection", "false", "googRtt", "5"));
+        assertEquals(80, stats.getLatest(StatsCollector.Metric.RTT_MS), DELTA);
+
+        sample(report("ssrc_1_send", "ssrc", 2000, "mediaType", "video", "googRtt", "80"),
+                report("Conn-1", "googCandidatePair", 2000, "googActiveConnection", "true", "googRtt", "40"));
+        assertEquals(40, stats.getLatest(StatsCollector.Metric.RTT_MS), DELTA);
+    }
+
+    @Test
+    public void listenersSeeEachSample() {
+        final List<Double> seen = new ArrayList<>();
+        stats.addListener((collector, reports) ->
+                seen.add(collector.getLatest(StatsCollector.Metric.AVAILABLE_SEND_BANDWIDTH_KBPS)));
+
+        sample(report("bweforvideo", "VideoBwe", 1000, "googAvailableSendBandwidth", "500000"));
+
+        assertEquals(1, seen.size());
+        assertEquals(500, seen.get(0), DELTA);
+    }
+}
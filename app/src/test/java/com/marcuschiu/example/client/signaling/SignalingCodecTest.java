@@ -0,0 +1,235 @@
+package com.marcuschiu.example.client.signaling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+/**
+ * Round trips through SignalingCodec, cross-checked against org.json, which
+ * is what the peers on the other end of the room server use.
+ */
+public class SignalingCodecTest {
+    // Quotes, backslashes, a slash, control characters and a character
+    // outside the BMP, at both escaping levels.
+    private static final String SDP = "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+            + "s=\"quoted\" \\back\\slash\\\" /path\r\n"
+            + "a=x-control:\u0000\u0001\u001f\u007f\t\b\f\r\n"
+            + "a=x-emoji:\ud83d\ude00 \u2028\r\n";
+
+    private static final IceCandidate CANDIDATE1 = new IceCandidate("audio", 0,
+            "candidate:1 1 udp 2122260223 192.168.1.2 53421 typ host generation 0");
+    private static final IceCandidate CANDIDATE2 = new IceCandidate("video", 1,
+            "candidate:2 1 tcp 1518280447 10.0.0.1 9 typ host tcptype active generation 0");
+
+    private final SignalingCodec codec = new SignalingCodec();
+
+    @Test
+    public void roundTripsEveryMessageType() throws JSONException {
+        final SignalingMessage[] messages = {
+                SignalingMessage.candidate(CANDIDATE1),
+                SignalingMessage.candidates(new IceCandidate[] {CANDIDATE1, CANDIDATE2}),
+                SignalingMessage.candidates(new IceCandidate[0]),
+                SignalingMessage.removeCandidates(new IceCandidate[] {CANDIDATE2}),
+                SignalingMessage.sessionDescription(new SessionDescription(SessionDescription.Type.OFFER, SDP)),
+                SignalingMessage.sessionDescription(new SessionDescription(SessionDescription.Type.ANSWER, SDP)),
+                SignalingMessage.sessionDescription(
+                        new SessionDescription(SessionDescription.Type.ANSWER, SDP), true),
+                SignalingMessage.bye(),
+        };
+        for (SignalingMessage message : messages) {
+            final String payload = codec.encodeMessage(message);
+            assertMessageEquals(message, codec.decodeMessage(payload));
+            assertJsonEquals(message, new JSONObject(payload));
+
+            final String frame = codec.encodeWebSocketSend(message);
+            final JSONObject envelope = new JSONObject(frame);
+            assertEquals("send", envelope.getString("cmd"));
+            assertEquals(payload, envelope.getString("msg"));
+            // The send command has the same envelope as a received frame.
+            assertMessageEquals(message, codec.decodeWebSocketFrame(frame));
+        }
+    }
+
+    @Test
+    public void decodesFramesWrittenByOrgJson() throws JSONException {
+        final JSONObject payload = new JSONObject();
+        payload.put("type", "offer");
+        payload.put("sdp", SDP);
+        final JSONObject envelope = new JSONObject();
+        envelope.put("msg", payload.toString());
+        envelope.put("error", "");
+
+        final SignalingMessage message = codec.decodeWebSocketFrame(envelope.toString());
+
+        assertEquals(SignalingMessage.Type.OFFER, message.type);
+        assertEquals(SDP, message.sdp.description);
+    }
+
+    @Test
+    public void decodesPrettyPrintedAndReorderedFields() throws JSONException {
+        final JSONObject candidate = new JSONObject();
+        candidate.put("candidate", CANDIDATE2.sdp);
+        candidate.put("ignored", new JSONArray("[1, {\"a\": \"}\"}, null, true]"));
+        candidate.put("id", CANDIDATE2.sdpMid);
+        candidate.put("label", CANDIDATE2.sdpMLineIndex);
+        final JSONObject payload = new JSONObject();
+        payload.put("candidates", new JSONArray().put(candidate));
+        payload.put("extra", -1.5e3);
+        payload.put("type", "remove-candidates");
+        final String frame = "\n{ \"error\" : \"\" ,\n  \"other\" : { \"x\" : [ \"]\" ] },\n  \"msg\" : "
+                + JSONObject.quote(payload.toString(2)) + "\n}\n";
+
+        final SignalingMessage message = codec.decodeWebSocketFrame(frame);
+
+        assertMessageEquals(SignalingMessage.removeCandidates(new IceCandidate[] {CANDIDATE2}), message);
+    }
+
+    @Test
+    public void rejectsFramesWithAnError() {
+        assertDecodeFails("{\"msg\":\"\",\"error\":\"Unknown client\"}");
+        assertDecodeFails("{\"error\":\"Unknown client\",\"msg\":\"{\\\"type\\\":\\\"bye\\\"}\"}");
+    }
+
+    @Test
+    public void rejectsUnknownTypes() {
+        assertDecodeFails("{\"msg\":\"{\\\"type\\\":\\\"pranswer\\\",\\\"sdp\\\":\\\"\\\"}\",\"error\":\"\"}");
+        try {
+            codec.decodeMessage("{\"type\":\"hello\"}");
+            fail("Decoded an unknown type");
+        } catch (JSONException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void rejectsEveryTruncationOfAValidFrame() {
+        final String frame = codec.encodeWebSocketSend(SignalingMessage.sessionDescription(
+                new SessionDescription(SessionDescription.Type.OFFER, SDP)));
+        for (int length = 0; length < frame.length(); length++) {
+            assertDecodeFails(frame.substring(0, length));
+        }
+        final String payload = codec.encodeMessage(
+                SignalingMessage.candidates(new IceCandidate[] {CANDIDATE1, CANDIDATE2}));
+        for (int length = 0; length < payload.length(); length++) {
+            try {
+                codec.decodeMessage(payload.substring(0, length));
+                fail("Decoded truncated payload: " + payload.substring(0, length));
+            } catch (JSONException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMalformedFrames() {
+        final String[] frames = {
+                "",
+                "null",
+                "[]",
+                "{\"msg\":{\"type\":\"bye\"}}",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\"}\"",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\"} x\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\"}\"} trailing",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\"\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"b\\\\qe\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"b\\\\u00zz\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"b\\\\u00\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"b\\q\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"candidate\\\",\\\"label\\\":\\\"0\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"candidate\\\",\\\"id\\\":\\\"audio\\\",\\\"label\\\":0}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"candidates\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"offer\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"answer\\\",\\\"sdp\\\":\\\"\\\","
+                        + "\\\"acceptsCandidateBatches\\\":tru}\"}",
+                "{\"msg\":\"{\\\"sdp\\\":\\\"\\\"}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\",\\\"x\\\":[1,2}\"}",
+                "{\"msg\":\"{\\\"type\\\":\\\"bye\\\" \\\"x\\\":1}\"}",
+                "{\"msg\" \"{}\"}",
+                "{\"error\":\"\"}",
+        };
+        for (String frame : frames) {
+            assertDecodeFails(frame);
+        }
+    }
+
+    private void assertDecodeFails(String frame) {
+        try {
+            codec.decodeWebSocketFrame(frame);
+            fail("Decoded malformed frame: " + frame);
+        } catch (JSONException e) {
+            // Expected; anything else escapes and fails the test.
+        }
+    }
+
+    private static void assertMessageEquals(SignalingMessage expected, SignalingMessage actual) {
+        assertEquals(expected.type, actual.type);
+        if (expected.candidate == null) {
+            assertNull(actual.candidate);
+        } else {
+            assertCandidateEquals(expected.candidate, actual.candidate);
+        }
+        if (expected.candidates == null) {
+            assertNull(actual.candidates);
+        } else {
+            assertEquals(expected.candidates.length, actual.candidates.length);
+            for (int i = 0; i < expected.candidates.length; i++) {
+                assertCandidateEquals(expected.candidates[i], actual.candidates[i]);
+            }
+        }
+        if (expected.sdp == null) {
+            assertNull(actual.sdp);
+        } else {
+            assertEquals(expected.sdp.type, actual.sdp.type);
+            assertEquals(expected.sdp.description, actual.sdp.description);
+        }
+        assertEquals(expected.acceptsCandidateBatches, actual.acceptsCandidateBatches);
+    }
+
+    private static void assertCandidateEquals(IceCandidate expected, IceCandidate actual) {
+        assertEquals(expected.sdpMid, actual.sdpMid);
+        assertEquals(expected.sdpMLineIndex, actual.sdpMLineIndex);
+        assertEquals(expected.sdp, actual.sdp);
+    }
+
+    // Checks the encoding against the field names AppRTC peers read.
+    private static void assertJsonEquals(SignalingMessage expected, JSONObject json) throws JSONException {
+        switch (expected.type) {
+            case CANDIDATE:
+                assertEquals("candidate", json.getString("type"));
+                assertCandidateJsonEquals(expected.candidate, json);
+                break;
+            case CANDIDATES:
+            case REMOVE_CANDIDATES:
+                assertEquals(expected.type == SignalingMessage.Type.CANDIDATES ? "candidates" : "remove-candidates",
+                        json.getString("type"));
+                final JSONArray candidates = json.getJSONArray("candidates");
+                assertEquals(expected.candidates.length, candidates.length());
+                for (int i = 0; i < candidates.length(); i++) {
+                    assertCandidateJsonEquals(expected.candidates[i], candidates.getJSONObject(i));
+                }
+                break;
+            case OFFER:
+            case ANSWER:
+                assertEquals(expected.sdp.type.canonicalForm(), json.getString("type"));
+                assertEquals(expected.sdp.description, json.getString("sdp"));
+                assertEquals(expected.acceptsCandidateBatches, json.optBoolean("acceptsCandidateBatches"));
+                break;
+            case BYE:
+                assertEquals("bye", json.getString("type"));
+                break;
+        }
+    }
+
+    private static void assertCandidateJsonEquals(IceCandidate expected, JSONObject json) throws JSONException {
+        assertEquals(expected.sdpMid, json.getString("id"));
+        assertEquals(expected.sdpMLineIndex, json.getInt("label"));
+        assertEquals(expected.sdp, json.getString("candidate"));
+    }
+}
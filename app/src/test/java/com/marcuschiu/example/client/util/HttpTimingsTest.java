@@ -0,0 +1,152 @@
+package com.marcuschiu.example.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Runs requests against a local stand-in server. localhost.jks holds a
+ * self-signed certificate for localhost and 127.0.0.1, with password
+ * "password".
+ */
+public class HttpTimingsTest {
+    private static final long RESPONSE_DELAY_MS = 100;
+    private static final byte[] BODY = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    // Client port of every exchange, to tell new connections from reused ones.
+    private final List<Integer> clientPorts = new ArrayList<>();
+    private SSLSocketFactory defaultSocketFactory;
+
+    @Before
+    public void setUp() {
+        defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        HttpsURLConnection.setDefaultSSLSocketFactory(defaultSocketFactory);
+    }
+
+    @Test
+    public void plainHttpHasNoTlsPhase() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        startServer();
+
+        final HttpTimings timings = post("http://localhost:" + server.getAddress().getPort() + "/join");
+
+        assertTrue(timings.dnsMs >= 0);
+        assertTrue(timings.connectMs >= 0);
+        assertEquals(-1, timings.tlsMs);
+        assertTrue(timings.ttfbMs >= RESPONSE_DELAY_MS);
+        assertTrue(timings.totalMs >= timings.dnsMs + timings.connectMs + timings.ttfbMs);
+    }
+
+    @Test
+    public void httpsReusesTheConnectionWithoutAnotherHandshake() throws Exception {
+        final SSLContext sslContext = createSslContext();
+        HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
+        final HttpsServer httpsServer =
+                HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server = httpsServer;
+        startServer();
+        final String url = "https://localhost:" + server.getAddress().getPort() + "/join";
+
+        final HttpTimings first = post(url);
+        final HttpTimings second = post(url);
+
+        assertTrue(first.tlsMs >= 0);
+        assertTrue(first.ttfbMs >= RESPONSE_DELAY_MS);
+        // The keep-alive connection is reused: no new TCP connection and no
+        // handshake.
+        assertEquals(-1, second.tlsMs);
+        assertEquals(2, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+    }
+
+    private void startServer() {
+        server.createContext("/", this::respond);
+        server.start();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        synchronized (clientPorts) {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // Drain the request.
+            }
+        }
+        try {
+            Thread.sleep(RESPONSE_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(200, BODY.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(BODY);
+        }
+    }
+
+    private static HttpTimings post(String url) throws IOException {
+        final HttpTimings.Recorder recorder = new HttpTimings.Recorder("POST", url);
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        recorder.connect(connection);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(BODY);
+        }
+        recorder.requestSent();
+        assertEquals(200, recorder.getResponseCode(connection));
+        assertEquals("{}", HttpTimings.readResponse(connection, true));
+        return recorder.finish();
+    }
+
+    private static SSLContext createSslContext() throws Exception {
+        final char[] password = "password".toCharArray();
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = HttpTimingsTest.class.getClassLoader().getResourceAsStream("localhost.jks")) {
+            keyStore.load(in, password);
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        final TrustManagerFactory trustManagers =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return sslContext;
+    }
+}
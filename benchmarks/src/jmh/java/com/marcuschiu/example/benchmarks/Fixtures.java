@@ -0,0 +1,34 @@
+package com.marcuschiu.example.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the captured SDP fixtures under src/jmh/resources/sdp.
+ */
+final class Fixtures {
+    private Fixtures() {}
+
+    static String sdp(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/sdp/" + name + ".sdp")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No SDP fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            // Fixtures must reach the munging code with CRLF line endings however
+            // they were checked out.
+            return new String(out.toByteArray(), StandardCharsets.UTF_8)
+                    .replace("\r\n", "\n")
+                    .replace("\n", "\r\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
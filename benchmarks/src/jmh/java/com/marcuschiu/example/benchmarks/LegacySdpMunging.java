@@ -0,0 +1,129 @@
+package com.marcuschiu.example.benchmarks;
+
+import com.marcuschiu.example.client.sdp.SdpPolicy;
+import com.marcuschiu.example.client.sdp.SdpTransforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The split/regex implementation of preferCodec and setStartBitrate that the
+ * Sdp model and SdpPipeline replaced, kept as the baseline the rewrite is
+ * measured against. Logging is stripped; the munging is unchanged.
+ */
+final class LegacySdpMunging {
+    private static final String VIDEO_CODEC_VP8 = SdpTransforms.VIDEO_CODEC_VP8;
+    private static final String AUDIO_CODEC_OPUS = SdpTransforms.AUDIO_CODEC_OPUS;
+    private static final String AUDIO_CODEC_PARAM_BITRATE = SdpPolicy.OPUS_PARAM_MAX_AVERAGE_BITRATE;
+
+    private LegacySdpMunging() {}
+
+    static String setStartBitrate(String sdpDescription) {
+        String[] lines = sdpDescription.split("\r\n");
+        int rtpmapLineIndex = -1;
+        boolean sdpFormatUpdated = false;
+        String codecRtpMap = null;
+        String regex = "^a=rtpmap:(\\d+) " + AUDIO_CODEC_OPUS + "(/\\d+)+[\r]?$";
+        Pattern codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                codecRtpMap = codecMatcher.group(1);
+                rtpmapLineIndex = i;
+                break;
+            }
+        }
+        if (codecRtpMap == null) {
+            return sdpDescription;
+        }
+        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
+        codecPattern = Pattern.compile(regex);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher codecMatcher = codecPattern.matcher(lines[i]);
+            if (codecMatcher.matches()) {
+                lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (32 * 1000);
+                sdpFormatUpdated = true;
+                break;
+            }
+        }
+        StringBuilder newSdpDescription = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            newSdpDescription.append(lines[i]).append("\r\n");
+            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+                String bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "=" + (32 * 1000);
+                newSdpDescription.append(bitrateSet).append("\r\n");
+            }
+        }
+        return newSdpDescription.toString();
+    }
+
+    static String preferCodec(String sdpDescription) {
+        final String[] lines = sdpDescription.split("\r\n");
+        final int mLineIndex = findMediaDescriptionLine(false, lines);
+        if (mLineIndex == -1) {
+            return sdpDescription;
+        }
+        final List<String> codecPayloadTypes = new ArrayList<>();
+        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + VIDEO_CODEC_VP8 + "(/\\d+)+[\r]?$");
+        for (String line : lines) {
+            Matcher codecMatcher = codecPattern.matcher(line);
+            if (codecMatcher.matches()) {
+                codecPayloadTypes.add(codecMatcher.group(1));
+            }
+        }
+        if (codecPayloadTypes.isEmpty()) {
+            return sdpDescription;
+        }
+        final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
+        if (newMLine == null) {
+            return sdpDescription;
+        }
+        lines[mLineIndex] = newMLine;
+        return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
+    }
+
+    private static String movePayloadTypesToFront(List<String> preferredPayloadTypes, String mLine) {
+        final List<String> origLineParts = Arrays.asList(mLine.split(" "));
+        if (origLineParts.size() <= 3) {
+            return null;
+        }
+        final List<String> header = origLineParts.subList(0, 3);
+        final List<String> unpreferredPayloadTypes =
+                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
+        unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
+        final List<String> newLineParts = new ArrayList<>();
+        newLineParts.addAll(header);
+        newLineParts.addAll(preferredPayloadTypes);
+        newLineParts.addAll(unpreferredPayloadTypes);
+        return joinString(newLineParts, " ", false /* delimiterAtEnd */);
+    }
+
+    private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
+        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
+        for (int i = 0; i < sdpLines.length; ++i) {
+            if (sdpLines[i].startsWith(mediaDescription)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String joinString(Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
+        Iterator<? extends CharSequence> iter = s.iterator();
+        if (!iter.hasNext()) {
+            return "";
+        }
+        StringBuilder buffer = new StringBuilder(iter.next());
+        while (iter.hasNext()) {
+            buffer.append(delimiter).append(iter.next());
+        }
+        if (delimiterAtEnd) {
+            buffer.append(delimiter);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.marcuschiu.example.benchmarks;
+
+import com.marcuschiu.example.client.sdp.SdpPipeline;
+import com.marcuschiu.example.client.sdp.SdpPolicy;
+import com.marcuschiu.example.client.sdp.SdpTransforms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remote SDP munging as done on the peer connection executor during call
+ * setup, against the split/regex baseline it replaced. defaultRemotePipeline
+ * is the shipped path: PeerConnectionClient applies SdpPolicy.DEFAULT's
+ * remote pipeline unless the call sets another policy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SdpMungingBenchmark {
+    @Param({"safari-offer", "firefox-offer", "chrome-offer", "chrome-offer-large"})
+    public String fixture;
+
+    private String description;
+    private SdpPipeline defaultRemotePipeline;
+    private SdpPipeline trimmedRemotePipeline;
+
+    @Setup
+    public void setUp() {
+        description = Fixtures.sdp(fixture);
+        defaultRemotePipeline = SdpPolicy.DEFAULT.createRemotePipeline();
+        trimmedRemotePipeline = SdpPolicy.builder()
+                .setVideoCodecs(Arrays.asList(SdpTransforms.VIDEO_CODEC_H264, SdpTransforms.VIDEO_CODEC_VP8))
+                .setAudioCodecs(Arrays.asList(SdpTransforms.AUDIO_CODEC_OPUS))
+                .setVideoBitrateKbps(1000, 300, 2500)
+                .setOpusParameter(SdpPolicy.OPUS_PARAM_MAX_AVERAGE_BITRATE, "32000")
+                .setStripUnusedCodecs(true)
+                .createSdpPolicy()
+                .createRemotePipeline();
+    }
+
+    @Benchmark
+    public String legacyPreferCodec() {
+        return LegacySdpMunging.preferCodec(description);
+    }
+
+    @Benchmark
+    public String legacySetStartBitrate() {
+        return LegacySdpMunging.setStartBitrate(description);
+    }
+
+    // setRemoteDescription before the Sdp model: two full split/regex/join
+    // passes. Same munging as defaultRemotePipeline.
+    @Benchmark
+    public String legacyRemoteMunging() {
+        return LegacySdpMunging.setStartBitrate(LegacySdpMunging.preferCodec(description));
+    }
+
+    @Benchmark
+    public String defaultRemotePipeline() {
+        return defaultRemotePipeline.apply(description);
+    }
+
+    @Benchmark
+    public String trimmedRemotePipeline() {
+        return trimmedRemotePipeline.apply(description);
+    }
+}
@@ -0,0 +1,186 @@
+package com.marcuschiu.example.benchmarks;
+
+import com.marcuschiu.example.client.signaling.SignalingCodec;
+import com.marcuschiu.example.client.signaling.SignalingMessage;
+import com.marcuschiu.example.client.util.Util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ICE candidate and SDP JSON handling of the signaling path: the org.json
+ * double-parse/double-wrap way WebSocketRTCClient and WebSocketChannelClient
+ * used to build and read messages, against SignalingCodec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignalingJsonBenchmark {
+    private static final String CANDIDATE_SDP =
+            "candidate:1881402583 1 udp 2122260223 192.168.1.61 35077 typ host generation 0 network-id 1 network-cost 10";
+
+    private IceCandidate candidate;
+    private IceCandidate[] candidates;
+    private JSONObject candidateJson;
+    private String offerSdp;
+    private String candidateFrame;
+    private String removeCandidatesFrame;
+    private String offerFrame;
+    private SignalingCodec codec;
+    private SignalingMessage candidateMessage;
+    private SignalingMessage removeCandidatesMessage;
+    private SignalingMessage offerMessage;
+
+    @Setup
+    public void setUp() throws JSONException {
+        candidate = new IceCandidate("video", 1, CANDIDATE_SDP);
+        candidates = new IceCandidate[8];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = new IceCandidate(i % 2 == 0 ? "audio" : "video", i % 2, CANDIDATE_SDP);
+        }
+        candidateJson = Util.toJsonCandidate(candidate);
+        offerSdp = Fixtures.sdp("chrome-offer");
+        candidateFrame = wrapIncoming(encodeCandidate());
+        removeCandidatesFrame = wrapIncoming(encodeRemoveCandidates());
+        offerFrame = wrapIncoming(encodeOffer());
+        codec = new SignalingCodec();
+        candidateMessage = SignalingMessage.candidate(candidate);
+        removeCandidatesMessage = SignalingMessage.removeCandidates(candidates);
+        offerMessage = SignalingMessage.sessionDescription(
+                new SessionDescription(SessionDescription.Type.OFFER, offerSdp));
+    }
+
+    @Benchmark
+    public JSONObject toJsonCandidate() {
+        return Util.toJsonCandidate(candidate);
+    }
+
+    @Benchmark
+    public IceCandidate toJavaCandidate() throws JSONException {
+        return Util.toJavaCandidate(candidateJson);
+    }
+
+    // WebSocketRTCClient.sendLocalIceCandidate followed by WebSocketChannelClient.send.
+    @Benchmark
+    public String encodeCandidateEnvelope() throws JSONException {
+        return wrapOutgoing(encodeCandidate());
+    }
+
+    @Benchmark
+    public String encodeRemoveCandidatesEnvelope() throws JSONException {
+        return wrapOutgoing(encodeRemoveCandidates());
+    }
+
+    @Benchmark
+    public String encodeOfferPost() {
+        return encodeOffer();
+    }
+
+    // WebSocketRTCClient.onWebSocketMessage: envelope parse, then payload parse.
+    @Benchmark
+    public IceCandidate decodeCandidateEnvelope() throws JSONException {
+        JSONObject json = new JSONObject(new JSONObject(candidateFrame).getString("msg"));
+        return Util.toJavaCandidate(json);
+    }
+
+    @Benchmark
+    public IceCandidate[] decodeRemoveCandidatesEnvelope() throws JSONException {
+        JSONObject json = new JSONObject(new JSONObject(removeCandidatesFrame).getString("msg"));
+        JSONArray candidateArray = json.getJSONArray("candidates");
+        IceCandidate[] result = new IceCandidate[candidateArray.length()];
+        for (int i = 0; i < candidateArray.length(); ++i) {
+            result[i] = Util.toJavaCandidate(candidateArray.getJSONObject(i));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String decodeOfferEnvelope() throws JSONException {
+        JSONObject json = new JSONObject(new JSONObject(offerFrame).getString("msg"));
+        return json.getString("sdp");
+    }
+
+    @Benchmark
+    public String codecEncodeCandidateEnvelope() {
+        return codec.encodeWebSocketSend(candidateMessage);
+    }
+
+    @Benchmark
+    public String codecEncodeRemoveCandidatesEnvelope() {
+        return codec.encodeWebSocketSend(removeCandidatesMessage);
+    }
+
+    @Benchmark
+    public String codecEncodeOfferPost() {
+        return codec.encodeMessage(offerMessage);
+    }
+
+    @Benchmark
+    public SignalingMessage codecDecodeCandidateEnvelope() throws JSONException {
+        return codec.decodeWebSocketFrame(candidateFrame);
+    }
+
+    @Benchmark
+    public SignalingMessage codecDecodeRemoveCandidatesEnvelope() throws JSONException {
+        return codec.decodeWebSocketFrame(removeCandidatesFrame);
+    }
+
+    @Benchmark
+    public SignalingMessage codecDecodeOfferEnvelope() throws JSONException {
+        return codec.decodeWebSocketFrame(offerFrame);
+    }
+
+    private String encodeCandidate() {
+        JSONObject json = new JSONObject();
+        Util.jsonPut(json, "type", "candidate");
+        Util.jsonPut(json, "label", candidate.sdpMLineIndex);
+        Util.jsonPut(json, "id", candidate.sdpMid);
+        Util.jsonPut(json, "candidate", candidate.sdp);
+        return json.toString();
+    }
+
+    private String encodeRemoveCandidates() {
+        JSONObject json = new JSONObject();
+        Util.jsonPut(json, "type", "remove-candidates");
+        JSONArray jsonArray = new JSONArray();
+        for (final IceCandidate candidate : candidates) {
+            jsonArray.put(Util.toJsonCandidate(candidate));
+        }
+        Util.jsonPut(json, "candidates", jsonArray);
+        return json.toString();
+    }
+
+    private String encodeOffer() {
+        JSONObject json = new JSONObject();
+        Util.jsonPut(json, "sdp", offerSdp);
+        Util.jsonPut(json, "type", "offer");
+        return json.toString();
+    }
+
+    private static String wrapOutgoing(String message) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("cmd", "send");
+        json.put("msg", message);
+        return json.toString();
+    }
+
+    // Collider delivers {"msg": "<payload>", "error": ""} to the other client.
+    private static String wrapIncoming(String message) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("msg", message);
+        json.put("error", "");
+        return json.toString();
+    }
+}
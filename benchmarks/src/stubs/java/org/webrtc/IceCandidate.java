@@ -0,0 +1,16 @@
+package org.webrtc;
+
+/**
+ * Field-compatible stand-in for the WebRTC class of the same name.
+ */
+public class IceCandidate {
+    public final String sdpMid;
+    public final int sdpMLineIndex;
+    public final String sdp;
+
+    public IceCandidate(String sdpMid, int sdpMLineIndex, String sdp) {
+        this.sdpMid = sdpMid;
+        this.sdpMLineIndex = sdpMLineIndex;
+        this.sdp = sdp;
+    }
+}